@@ -16,19 +16,18 @@
 package net.siisise.cbor;
 
 import net.siisise.lang.Binary16;
+import java.io.InputStream;
+import java.lang.reflect.Type;
 import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
-import net.siisise.bind.Rebind;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import net.siisise.block.ReadableBlock;
-import net.siisise.io.BASE64;
 import net.siisise.io.Input;
-import net.siisise.io.Packet;
-import net.siisise.io.PacketA;
-import net.siisise.lang.Bin;
 
 /**
  * RFC 8949 CBOR. バイナリパック Parse系
@@ -46,6 +45,18 @@ public class CBOR {
         return parse(ReadableBlock.wrap(src));
     }
 
+    /**
+     * ByteBuffer から1要素読む.
+     * byte string は読み込み専用の slice, text string は遅延変換の CharSequence で返す.
+     * MappedByteBuffer も可.
+     *
+     * @param src 入力. position は要素の後ろへ進む
+     * @return 抽出データ
+     */
+    public static Object parse(ByteBuffer src) {
+        return new CBORBufferParser().parse(src);
+    }
+
     /*
     public static class UnknownLengthException extends RuntimeException {
 
@@ -101,168 +112,409 @@ public class CBOR {
     }
 
     /**
-     * 基本型
+     * ByteBuffer から読む parseLen.
      *
-     * @param in
-     * @return 抽出データ
+     * @param in 入力
+     * @param code 先頭バイト
+     * @return -1: 引数なし 0-: 64bit length
      */
-    public static Object parse(Input in) {
-        int code = in.read();
-        long len = parseLen(in, code);
-        switch (code >> 5) {
-            case 0: // 符号無し整数
-                return parseNumber(len);
-            case 1: // 負の整数
-                return parseUnSigned(len);
-            case 2: // bin 大きいものを扱うときはPacket形式に変えるかも
-                return parseBin(len, in);
-            case 3: // UTF-8 String Javaで扱えそうな範囲内で
-                return parseString(len, in);
-            case 4: // 配列/List / Array
-                return parseList(len, in);
-            case 5: // Map
-                return parseMap(len, in);
-            case 6: // tag Section 3.4.
-                return tag(len, in);
-//            case 7: // float / simple / Section 3.3.
-            default:
-                return other(code & 0x1f, len, in);
+    static long parseLen(ByteBuffer in, int code) {
+        int ai = code & 0x1f;
+        switch (ai) {
+            case 24:
+            case 25:
+            case 26:
+            case 27:
+                // byte order によらず big endian
+                long len = 0;
+                for (int i = 1 << (ai - 24); i > 0; i--) {
+                    len = (len << 8) | (in.get() & 0xff);
+                }
+                return len;
+            case 28:
+            case 29:
+            case 30:
+                throw new UnsupportedOperationException("予約コード");
+            case 31:
+                return -1;
+            default: // 0 - 23
+                return code & 0x1f;
         }
     }
 
     /**
-     * 0 正の整数.
+     * parseLen の値を確かめる.
+     * 不定長は ai 31 の major 2 - 5 だけで -1 にする. major 0, 1, 6 の ai 31 は不正.
+     * major 2 - 5 の 2^63 以上の長さも不定長と間違えないよう不正にする.
      *
-     * @param len
-     * @return long または BigInteger
+     * @param code 先頭バイト
+     * @param len parseLen の値
+     * @return 長さ または -1
+     * @throws IllegalStateException 不正な長さ
      */
-    private static Number parseNumber(long len) {
-        if (len < 0) {
-            return BigInteger.valueOf(len).add(BigInteger.ONE.shiftLeft(64));
+    static long checkLen(int code, long len) {
+        int major = code >>> 5;
+        if ((code & 0x1f) == 31) {
+            if (major < 2 || major == 6) {
+                throw new IllegalStateException("不定長にできない major " + major);
+            }
+            return -1;
+        } else if (major >= 2 && major <= 5 && (len < 0 || (major == 5 && len > Long.MAX_VALUE / 2))) {
+            throw new IllegalStateException("長さが大きすぎる major " + major);
         }
         return len;
     }
 
     /**
-     * 1 負の整数.
+     * 入れ子の上限. 再帰で読むものの目安
+     */
+    static final int MAX_DEPTH = 1024;
+
+    private static final int WF_BREAK = -1;
+    private static final int WF_ERROR = -2;
+
+    /**
+     * 1要素読み飛ばす.
+     * 値は作らず, RFC 8949 Appendix C の well-formed 判定をしながら進める.
      *
-     * @param len
-     * @return long または BigInteger
+     * @param in 入力. position は要素の後ろへ進む
+     * @throws IllegalStateException well-formed ではない
      */
-    private static Number parseUnSigned(long len) {
-        if (len < 0) {
-            BigInteger b = BigInteger.valueOf(len).add(BigInteger.ONE.shiftLeft(64));
-            return b.negate().subtract(BigInteger.ONE);
+    public static void skipItem(ByteBuffer in) {
+        if (wellFormed(in, false, 0) < 0) {
+            throw new IllegalStateException("well-formed ではない");
         }
-        return -len - 1;
     }
 
     /**
-     * 2 bin 大きいものを扱うときはPacket形式に変えるかも
+     * well-formed か確認する. 1要素だけで余りがないこと.
      *
-     * @param len
+     * @param src CBOR
+     * @return well-formed
+     */
+    public static boolean validate(byte[] src) {
+        return validate(ByteBuffer.wrap(src));
+    }
+
+    /**
+     * well-formed か確認する. position から limit までが1要素であること.
+     * position は変えない.
+     *
+     * @param src CBOR
+     * @return well-formed
      */
-    private static byte[] parseBin(long len, Input in) {
-        if (len == -1) { // nest
-            Packet ret = new PacketA();
-            Object v = parse(in);
-            while (v != BREAK) {
-                ret.dwrite((byte[]) v);
-                v = parse(in);
+    public static boolean validate(ByteBuffer src) {
+        ByteBuffer in = src.duplicate();
+        return wellFormed(in, false, 0) >= 0 && !in.hasRemaining();
+    }
+
+    /**
+     * RFC 8949 Appendix C.
+     *
+     * @param in 入力
+     * @param breakable BREAK を受け付ける
+     * @param depth 入れ子の深さ
+     * @return major type, WF_BREAK, WF_ERROR
+     */
+    private static int wellFormed(ByteBuffer in, boolean breakable, int depth) {
+        if (!in.hasRemaining() || depth > MAX_DEPTH) {
+            return WF_ERROR;
+        }
+        int ib = in.get() & 0xff;
+        int mt = ib >>> 5;
+        int ai = ib & 0x1f;
+        long val = ai;
+        if (ai >= 24 && ai <= 27) {
+            int n = 1 << (ai - 24);
+            if (in.remaining() < n) {
+                return WF_ERROR;
             }
-            return ret.toByteArray();
+            val = parseLen(in, ib);
+        } else if (ai >= 28 && ai <= 30) {
+            return WF_ERROR;
+        } else if (ai == 31) {
+            return wellFormedIndefinite(in, mt, breakable, depth);
+        }
+        switch (mt) {
+            case 2:
+            case 3:
+                if (val < 0 || val > in.remaining()) {
+                    return WF_ERROR;
+                }
+                in.position(in.position() + (int) val);
+                break;
+            case 4:
+            case 5:
+                if (val < 0 || (mt == 5 && val > Long.MAX_VALUE / 2)) {
+                    return WF_ERROR;
+                }
+                for (long i = mt == 5 ? val * 2 : val; i > 0; i--) {
+                    if (wellFormed(in, false, depth + 1) < 0) {
+                        return WF_ERROR;
+                    }
+                }
+                break;
+            case 6:
+                if (wellFormed(in, false, depth + 1) < 0) {
+                    return WF_ERROR;
+                }
+                break;
+            case 7:
+                if (ai == 24 && val < 32) {
+                    return WF_ERROR;
+                }
+                break;
+            default:
+                break;
         }
-        byte[] bin = new byte[(int) len];
-        in.read(bin);
-        return bin;
+        return mt;
     }
 
-    private static String parseString(long len, Input in) {
-        PacketA ret = new PacketA();
-        if (len == -1) {
-            Object v = parse(in);
-            while (v != BREAK) {
-                ret.write((byte[]) v);
-                v = parse(in);
-            }
-            return new String(ret.toByteArray(), StandardCharsets.UTF_8);
-        } else {
-            byte[] str = new byte[(int) len];
-            in.read(str);
-            return new String(str, StandardCharsets.UTF_8);
+    private static int wellFormedIndefinite(ByteBuffer in, int mt, boolean breakable, int depth) {
+        int it;
+        switch (mt) {
+            case 2:
+            case 3:
+                // 分割は同じ major の定長のみ. 不定長の入れ子は 0 が返る
+                while ((it = wellFormed(in, true, depth + 1)) != WF_BREAK) {
+                    if (it != mt) {
+                        return WF_ERROR;
+                    }
+                }
+                break;
+            case 4:
+                while ((it = wellFormed(in, true, depth + 1)) != WF_BREAK) {
+                    if (it < 0) {
+                        return WF_ERROR;
+                    }
+                }
+                break;
+            case 5:
+                while ((it = wellFormed(in, true, depth + 1)) != WF_BREAK) {
+                    if (it < 0 || wellFormed(in, false, depth + 1) < 0) {
+                        return WF_ERROR;
+                    }
+                }
+                break;
+            case 7:
+                return breakable ? WF_BREAK : WF_ERROR;
+            default:
+                return WF_ERROR;
         }
+        return 0;
     }
 
     /**
-     * List / Array っぽいもの.
+     * RFC 8949 4.2.1 の決定的な符号化か確認する.
+     * 最短の長さと浮動小数点, 不定長なし, Map のキーが符号化したバイト列の順で重複なし.
+     * 1要素だけで余りがないこと. 値は作らない.
      *
-     * @param len 数
-     * @param in
-     * @return List
+     * @param src CBOR
+     * @return 決定的
+     */
+    public static boolean isDeterministic(byte[] src) {
+        return isDeterministic(ByteBuffer.wrap(src));
+    }
+
+    /**
+     * RFC 8949 4.2.1 の決定的な符号化か確認する.
+     * position から limit までが1要素であること. position は変えない.
+     *
+     * @param src CBOR
+     * @return 決定的
      */
-    private static List parseList(long len, Input in) {
-        List list = new ArrayList();
-        if (len == -1) {
-            Object v = parse(in);
-            while (v != BREAK) {
-                list.add(v);
-                v = parse(in);
+    public static boolean isDeterministic(ByteBuffer src) {
+        ByteBuffer in = src.duplicate();
+        return deterministic(in, 0) && !in.hasRemaining();
+    }
+
+    private static boolean deterministic(ByteBuffer in, int depth) {
+        if (!in.hasRemaining() || depth > MAX_DEPTH) {
+            return false;
+        }
+        int ib = in.get() & 0xff;
+        int mt = ib >>> 5;
+        int ai = ib & 0x1f;
+        long val = ai;
+        if (ai >= 24 && ai <= 27) {
+            if (in.remaining() < 1 << (ai - 24)) {
+                return false;
             }
-        } else {
-            for (int i = 0; i < len; i++) {
-                list.add(parse(in));
+            val = parseLen(in, ib);
+            if (mt == 7) {
+                if ((ai == 24 && val < 32)
+                        || (ai == 26 && CBORWriter.isHalf(Float.intBitsToFloat((int) val)))
+                        || (ai == 27 && Double.doubleToRawLongBits((float) Double.longBitsToDouble(val)) == val)) {
+                    return false;
+                }
+            } else if ((ai == 24 && val < 24) || (ai == 25 && val <= 0xff) || (ai == 26 && val <= 0xffff)
+                    || (ai == 27 && val >= 0 && val <= 0xffffffffL)) {
+                return false;
             }
+        } else if (ai >= 28) { // 不定長も不可
+            return false;
         }
-        return list;
+        switch (mt) {
+            case 2:
+            case 3:
+                if (val < 0 || val > in.remaining()) {
+                    return false;
+                }
+                in.position(in.position() + (int) val);
+                break;
+            case 4:
+                for (long i = val; i != 0; i--) {
+                    if (!deterministic(in, depth + 1)) {
+                        return false;
+                    }
+                }
+                break;
+            case 5:
+                int prev = -1;
+                int prevEnd = -1;
+                for (long i = val; i != 0; i--) {
+                    int key = in.position();
+                    if (!deterministic(in, depth + 1)) {
+                        return false;
+                    }
+                    int keyEnd = in.position();
+                    if (prev >= 0 && compareUnsigned(in, prev, prevEnd, key, keyEnd) >= 0) {
+                        return false;
+                    }
+                    prev = key;
+                    prevEnd = keyEnd;
+                    if (!deterministic(in, depth + 1)) {
+                        return false;
+                    }
+                }
+                break;
+            case 6:
+                return deterministic(in, depth + 1);
+            default:
+                break;
+        }
+        return true;
     }
 
-    private static Map parseMap(long len, Input in) {
-        Map obj = new LinkedHashMap();
-        if (len == -1) {
-            Object k = parse(in);
-            while (k != BREAK) {
-                Object val = parse(in);
-                obj.put((String) k, val);
-                k = parse(in);
-            }
-        } else {
-            for (int i = 0; i < len; i++) {
-                String key = (String) parse(in);
-                Object val = parse(in);
-                obj.put(key, val);
+    /**
+     * 同じ buffer の2つの範囲をバイト列として比べる.
+     */
+    private static int compareUnsigned(ByteBuffer in, int a, int aEnd, int b, int bEnd) {
+        for (; a < aEnd && b < bEnd; a++, b++) {
+            int c = (in.get(a) & 0xff) - (in.get(b) & 0xff);
+            if (c != 0) {
+                return c;
             }
         }
-        return obj;
+        return (aEnd - a) - (bEnd - b);
     }
 
     /**
-     * 6 タグ付けされた型
-     *
-     * Section 3.4. RFC 7049
+     * 基本型.
+     * 再帰せずに読む. 入れ子の深さは MAX_DEPTH まで.
+     * 上限を変えるときは CBORDecoder を使う.
      *
-     * @param tag
      * @param in
-     * @return
+     * @return 抽出データ
      */
-    static Object tag(long tag, Input in) {
-        Object src = parse(in);
-        if (tag >= 0 && tag <= Integer.MAX_VALUE) {
-            switch ((int) tag) {
-                case (int) CBORTag.EXPECTED_CONVERSION_BASE64URL:
-                    BASE64 b64url = new BASE64(BASE64.URL, 0);
-                    src = b64url.encode((byte[]) src);
-                    break;
-                case (int) CBORTag.EXPECTED_CONVERSION_BASE64:
-                    BASE64 b64 = new BASE64(BASE64.BASE64, 0);
-                    src = b64.encode((byte[]) src);
-                    break;
-                case (int) CBORTag.EXPECTED_CONVERSION_BASE16:
-                    src = Bin.toUpperHex((byte[]) src);
-                    break;
-            }
+    public static Object parse(Input in) {
+        return new CBORDecoder().parse(in);
+    }
+
+    /**
+     * Java のオブジェクトへ直接変換する.
+     * List / Map を経由せず, setter, field, record のコンストラクタに入れる.
+     * 知らないキーは読み飛ばす.
+     *
+     * @param <T> 型
+     * @param src CBOR
+     * @param type 変換先
+     * @return 値
+     */
+    public static <T> T parse(byte[] src, Class<T> type) {
+        return (T) parse(ReadableBlock.wrap(src), (Type) type);
+    }
+
+    /**
+     * Java のオブジェクトへ直接変換する.
+     *
+     * @param src CBOR
+     * @param type 変換先 List&lt;Foo&gt; など
+     * @return 値
+     */
+    public static Object parse(byte[] src, Type type) {
+        return parse(ReadableBlock.wrap(src), type);
+    }
+
+    /**
+     * Java のオブジェクトへ直接変換する.
+     *
+     * @param in 入力
+     * @param type 変換先
+     * @return 値
+     */
+    public static Object parse(Input in, Type type) {
+        CBORReader reader = new CBORReader(in);
+        reader.setMaxDepth(MAX_DEPTH);
+        if (reader.next() == CBORReader.Event.EOF) {
+            throw new IllegalStateException("途中で終わった");
         }
+        return CBORBinder.read(reader, type);
+    }
 
-        return new CBORTag(tag, src);
+    /**
+     * 0 正の整数.
+     *
+     * @param len
+     * @return long または BigInteger
+     */
+    static Number parseNumber(long len) {
+        if (len < 0) {
+            return BigInteger.valueOf(len).add(BigInteger.ONE.shiftLeft(64));
+        }
+        return len;
+    }
+
+    /**
+     * 1 負の整数.
+     *
+     * @param len
+     * @return long または BigInteger
+     */
+    static Number parseUnSigned(long len) {
+        if (len < 0) {
+            BigInteger b = BigInteger.valueOf(len).add(BigInteger.ONE.shiftLeft(64));
+            return b.negate().subtract(BigInteger.ONE);
+        }
+        return -len - 1;
+    }
+
+    /**
+     * 6 タグ付けされた型. 値は読み込み済み.
+     * 変換は CBORTags の共有の表で行う.
+     *
+     * @param tag タグ番号
+     * @param src タグ付けされた値
+     * @return 変換後の値
+     */
+    static Object tag(long tag, Object src) {
+        return CBORTags.getDefault().decode(tag, src);
+    }
+
+    /**
+     * byte string の中身.
+     *
+     * @param src byte[] または ByteBuffer
+     * @return byte[]
+     */
+    static byte[] bytes(Object src) {
+        if (src instanceof ByteBuffer) {
+            ByteBuffer bb = ((ByteBuffer) src).duplicate();
+            byte[] d = new byte[bb.remaining()];
+            bb.get(d);
+            return d;
+        }
+        return (byte[]) src;
     }
 
     /**
@@ -270,10 +522,9 @@ public class CBOR {
      *
      * @param code
      * @param len
-     * @param in
      * @return
      */
-    private static Object other(int code, long len, Input in) {
+    static Object other(int code, long len) {
         switch (code & 0x1f) {
             // 0..23 1 byte
             // 0..19 unassigned
@@ -314,7 +565,44 @@ public class CBOR {
 
     }
 
+    /**
+     * RFC 8742 CBOR Sequence.
+     * 連結された要素を1つずつ読む.
+     *
+     * @param in 入力
+     * @return 要素の Stream. close で in も閉じる
+     */
+    public static Stream<Object> sequence(InputStream in) {
+        return sequence(Channels.newChannel(in));
+    }
+
+    /**
+     * RFC 8742 CBOR Sequence.
+     * 連結された要素を1つずつ読む.
+     *
+     * @param ch 入力
+     * @return 要素の Stream. close で ch も閉じる
+     */
+    public static Stream<Object> sequence(ReadableByteChannel ch) {
+        CBORSequenceReader reader = new CBORSequenceReader(ch);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED), false)
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (java.io.IOException e) {
+                        throw new java.io.UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * 符号化.
+     * 作業用の領域は共有の CBORBufferPool から借りる.
+     *
+     * @param obj 値
+     * @return CBOR
+     */
     public static byte[] build(Object obj) {
-        return Rebind.valueOf(obj, CBOR.class);
+        return CBOREncoder.getDefault().encode(obj);
     }
 }
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.siisise.bind.Rebind;
+
+/**
+ * CBOR から Java のオブジェクトへ直接変換する.
+ * List / Map の木を作らず CBORReader のイベントから値を入れる.
+ * クラスごとの情報は初回に作って保持する.
+ * 知らないキーの値は展開せず読み飛ばす.
+ */
+class CBORBinder {
+
+    /**
+     * Map のキー
+     */
+    private static final CBORKeyCache KEYS = new CBORKeyCache();
+
+    private static final ClassValue<Bean> BEANS = new ClassValue<Bean>() {
+        @Override
+        protected Bean computeValue(Class<?> type) {
+            return new Bean(type);
+        }
+    };
+
+    /**
+     * record の要素. JDK 16以降
+     */
+    private static final Method RECORD_COMPONENTS;
+
+    static {
+        Method m;
+        try {
+            m = Class.class.getMethod("getRecordComponents");
+        } catch (NoSuchMethodException e) {
+            m = null;
+        }
+        RECORD_COMPONENTS = m;
+    }
+
+    /**
+     * プロパティ. setter, field, または record の要素.
+     */
+    private static class Property {
+
+        final String name;
+        final Type type;
+        final Class<?> raw;
+        /**
+         * (Object, Object)void. record のときは null
+         */
+        final MethodHandle setter;
+        /**
+         * record の引数の位置
+         */
+        final int index;
+
+        Property(String name, Type type, MethodHandle setter, int index) {
+            this.name = name;
+            this.type = type;
+            this.raw = raw(type);
+            this.setter = setter;
+            this.index = index;
+        }
+    }
+
+    /**
+     * クラスごとの変換情報
+     */
+    private static class Bean {
+
+        final Map<String, Property> props = new HashMap<>();
+        /**
+         * 引数なしのとき ()Object, record のとき (Object[])Object
+         */
+        MethodHandle constructor;
+        int argCount = -1;
+        Class<?>[] argTypes;
+
+        Bean(Class<?> type) {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            try {
+                if (RECORD_COMPONENTS != null && RECORD_COMPONENTS.invoke(type) != null) {
+                    record(type, lookup);
+                    return;
+                }
+                Constructor<?> c = type.getDeclaredConstructor();
+                c.setAccessible(true);
+                constructor = lookup.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new IllegalStateException(type.getName() + " のコンストラクタが使えない", e);
+            }
+            MethodType setterType = MethodType.methodType(void.class, Object.class, Object.class);
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    int mod = f.getModifiers();
+                    if (Modifier.isStatic(mod) || Modifier.isFinal(mod) || Modifier.isTransient(mod) || props.containsKey(f.getName())) {
+                        continue;
+                    }
+                    try {
+                        f.setAccessible(true);
+                        props.put(f.getName(), new Property(f.getName(), f.getGenericType(), lookup.unreflectSetter(f).asType(setterType), -1));
+                    } catch (IllegalAccessException | RuntimeException e) {
+                        // 使えないものは無視
+                    }
+                }
+            }
+            // setter を優先する
+            for (Method m : type.getMethods()) {
+                String n = m.getName();
+                if (n.length() > 3 && n.startsWith("set") && m.getParameterCount() == 1 && !Modifier.isStatic(m.getModifiers())) {
+                    String name = Character.toLowerCase(n.charAt(3)) + n.substring(4);
+                    try {
+                        props.put(name, new Property(name, m.getGenericParameterTypes()[0], lookup.unreflect(m).asType(setterType), -1));
+                    } catch (IllegalAccessException | RuntimeException e) {
+                        // 使えないものは無視
+                    }
+                }
+            }
+        }
+
+        private void record(Class<?> type, MethodHandles.Lookup lookup) throws ReflectiveOperationException {
+            Object[] components = (Object[]) RECORD_COMPONENTS.invoke(type);
+            argCount = components.length;
+            argTypes = new Class<?>[argCount];
+            for (int i = 0; i < argCount; i++) {
+                Object rc = components[i];
+                String name = (String) rc.getClass().getMethod("getName").invoke(rc);
+                Type t = (Type) rc.getClass().getMethod("getGenericType").invoke(rc);
+                argTypes[i] = (Class<?>) rc.getClass().getMethod("getType").invoke(rc);
+                props.put(name, new Property(name, t, null, i));
+            }
+            Constructor<?> c = type.getDeclaredConstructor(argTypes);
+            c.setAccessible(true);
+            constructor = lookup.unreflectConstructor(c)
+                    .asSpreader(Object[].class, argCount)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        }
+
+        /**
+         * Map を読む.
+         *
+         * @param r START_MAP を読んだところ
+         * @return 値
+         */
+        Object read(CBORReader r) throws Throwable {
+            Object obj = null;
+            Object[] args = null;
+            if (argCount >= 0) {
+                args = new Object[argCount];
+                for (int i = 0; i < argCount; i++) {
+                    args[i] = defaultValue(argTypes[i]);
+                }
+            } else {
+                obj = (Object) constructor.invokeExact();
+            }
+            while (r.next() != CBORReader.Event.BREAK) {
+                Property p = null;
+                if (r.event() == CBORReader.Event.TEXT) {
+                    p = props.get(r.stringValue(KEYS));
+                } else {
+                    r.skip();
+                }
+                r.next();
+                if (p == null) {
+                    r.skip();
+                    continue;
+                }
+                Object v = CBORBinder.read(r, p.type, p.name);
+                if (v == null && p.raw.isPrimitive()) {
+                    continue;
+                }
+                if (args != null) {
+                    args[p.index] = v;
+                } else {
+                    p.setter.invokeExact(obj, v);
+                }
+            }
+            if (args != null) {
+                obj = (Object) constructor.invokeExact(args);
+            }
+            return obj;
+        }
+    }
+
+    static Class<?> raw(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return raw(((ParameterizedType) type).getRawType());
+        } else if (type instanceof GenericArrayType) {
+            return Array.newInstance(raw(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        return Object.class;
+    }
+
+    private static Type typeArg(Type type, int i) {
+        if (type instanceof ParameterizedType) {
+            return ((ParameterizedType) type).getActualTypeArguments()[i];
+        }
+        return Object.class;
+    }
+
+    private static Object defaultValue(Class<?> c) {
+        if (!c.isPrimitive()) {
+            return null;
+        } else if (c == boolean.class) {
+            return false;
+        } else if (c == char.class) {
+            return (char) 0;
+        }
+        return convert(0L, c, null);
+    }
+
+    /**
+     * 数値の型変換.
+     *
+     * @param name エラーに出すプロパティ名 または null
+     * @throws IllegalStateException 数値を入れられない型
+     */
+    private static Object convert(Number n, Class<?> c, String name) {
+        if (c == int.class || c == Integer.class) {
+            return n.intValue();
+        } else if (c == long.class || c == Long.class) {
+            return n.longValue();
+        } else if (c == double.class || c == Double.class) {
+            return n.doubleValue();
+        } else if (c == float.class || c == Float.class) {
+            return n.floatValue();
+        } else if (c == short.class || c == Short.class) {
+            return n.shortValue();
+        } else if (c == byte.class || c == Byte.class) {
+            return n.byteValue();
+        } else if (c == BigInteger.class) {
+            return n instanceof BigInteger ? n : BigInteger.valueOf(n.longValue());
+        } else if (c == BigDecimal.class) {
+            return n instanceof BigInteger ? new BigDecimal((BigInteger) n) : new BigDecimal(n.toString());
+        } else if (c == char.class || c == Character.class) {
+            return (char) n.intValue();
+        } else if (c.isInstance(n)) {
+            return n;
+        }
+        throw mismatch(name, c, n);
+    }
+
+    private static IllegalStateException mismatch(String name, Class<?> c, Object v) {
+        return new IllegalStateException((name == null ? "" : name + " の ") + c.getName() + " に " + v.getClass().getName() + " は入らない");
+    }
+
+    /**
+     * 1要素読む.
+     *
+     * @param r 要素の最初のイベントを読んだところ
+     * @param type 変換先
+     * @return 値
+     */
+    static Object read(CBORReader r, Type type) {
+        return read(r, type, null);
+    }
+
+    /**
+     * プロパティの値を読む.
+     *
+     * @param r 要素の最初のイベントを読んだところ
+     * @param type 変換先
+     * @param name エラーに出すプロパティ名 または null
+     * @return 値
+     */
+    private static Object read(CBORReader r, Type type, String name) {
+        try {
+            return readValue(r, type, name);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object readValue(CBORReader r, Type type, String name) throws Throwable {
+        Class<?> raw = raw(type);
+        CBORReader.Event e = r.event();
+        switch (e) {
+            case EOF:
+                throw new IllegalStateException("途中で終わった");
+            case NULL:
+            case UNDEFINED:
+                return defaultValue(raw);
+            case TAG: // 変換は CBOR.tag に任せる
+                return fallback(r, type, raw, name);
+            default:
+                break;
+        }
+        if (raw == Object.class) {
+            return new CBORDecoder().read(r);
+        } else if (e == CBORReader.Event.TEXT && (raw == String.class || raw == CharSequence.class)) {
+            return r.stringValue();
+        } else if ((e == CBORReader.Event.INT || e == CBORReader.Event.FLOAT)
+                && (raw.isPrimitive() || Number.class.isAssignableFrom(raw) || raw == Character.class
+                || raw == Boolean.class || raw == String.class || raw == CharSequence.class)) {
+            return convert(r.numberValue(), raw, name);
+        } else if ((e == CBORReader.Event.TRUE || e == CBORReader.Event.FALSE) && (raw == boolean.class || raw == Boolean.class)) {
+            return e == CBORReader.Event.TRUE;
+        } else if (e == CBORReader.Event.BYTES && raw == byte[].class) {
+            return r.bytesValue();
+        } else if (e == CBORReader.Event.TEXT && raw.isEnum()) {
+            return Enum.valueOf((Class<Enum>) raw, r.stringValue());
+        } else if (e == CBORReader.Event.START_ARRAY) {
+            if (raw.isArray()) {
+                Type ct = type instanceof GenericArrayType ? ((GenericArrayType) type).getGenericComponentType() : raw.getComponentType();
+                List list = new ArrayList();
+                while (r.next() != CBORReader.Event.BREAK) {
+                    list.add(readValue(r, ct, name));
+                }
+                Object array = Array.newInstance(raw.getComponentType(), list.size());
+                for (int i = 0; i < list.size(); i++) {
+                    Array.set(array, i, list.get(i));
+                }
+                return array;
+            } else if (Collection.class.isAssignableFrom(raw)) {
+                Collection col = collection(raw);
+                Type ct = typeArg(type, 0);
+                while (r.next() != CBORReader.Event.BREAK) {
+                    col.add(readValue(r, ct, name));
+                }
+                return col;
+            }
+        } else if (e == CBORReader.Event.START_MAP) {
+            if (Map.class.isAssignableFrom(raw)) {
+                Map map = raw.isInterface() ? new LinkedHashMap() : (Map) raw.getDeclaredConstructor().newInstance();
+                Type kt = typeArg(type, 0);
+                Type vt = typeArg(type, 1);
+                while (r.next() != CBORReader.Event.BREAK) {
+                    Object k = readValue(r, kt, name);
+                    r.next();
+                    map.put(k, readValue(r, vt, name));
+                }
+                return map;
+            } else if (!raw.isInterface() && !raw.isPrimitive() && !raw.getName().startsWith("java.")) {
+                return BEANS.get(raw).read(r);
+            }
+        }
+        return fallback(r, type, raw, name);
+    }
+
+    /**
+     * 一旦木にしてから Rebind で変換する.
+     *
+     * @throws IllegalStateException 変換できなかった
+     */
+    private static Object fallback(CBORReader r, Type type, Class<?> raw, String name) {
+        Object v = new CBORDecoder().read(r);
+        if (v == null || raw.isInstance(v)) {
+            return v;
+        }
+        Object o = Rebind.valueOf(v, type);
+        if (o != null && !MethodType.methodType(raw).wrap().returnType().isInstance(o)) {
+            throw mismatch(name, raw, v);
+        }
+        return o;
+    }
+
+    private static Collection collection(Class<?> raw) throws ReflectiveOperationException {
+        if (!raw.isInterface()) {
+            return (Collection) raw.getDeclaredConstructor().newInstance();
+        } else if (Set.class.isAssignableFrom(raw)) {
+            return new LinkedHashSet();
+        }
+        return new ArrayList();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ByteBuffer 上の CBOR をコピーなしで読む.
+ * byte string は読み込み専用の slice, text string は CBORText で返す.
+ * Map のキーは String にする.
+ * 不定長の文字列だけはつなげるためにコピーする.
+ */
+public class CBORBufferParser {
+
+    private final boolean lazyText;
+    private final boolean sliceBytes;
+    private CBORKeyCache keyCache;
+
+    public CBORBufferParser() {
+        this(true);
+    }
+
+    /**
+     *
+     * @param lazyText text string を CBORText で返す. false のときは String
+     */
+    public CBORBufferParser(boolean lazyText) {
+        this(lazyText, true);
+    }
+
+    /**
+     *
+     * @param lazyText text string を CBORText で返す. false のときは String
+     * @param sliceBytes byte string を ByteBuffer で返す. false のときは byte[]
+     */
+    public CBORBufferParser(boolean lazyText, boolean sliceBytes) {
+        this.lazyText = lazyText;
+        this.sliceBytes = sliceBytes;
+    }
+
+    /**
+     * Map のキーを共有する.
+     *
+     * @param keyCache 共有表. null で使わない
+     */
+    public void setKeyCache(CBORKeyCache keyCache) {
+        this.keyCache = keyCache;
+    }
+
+    /**
+     * 1要素読む.
+     *
+     * @param src 入力. position は要素の後ろへ進む
+     * @return 抽出データ
+     */
+    public Object parse(ByteBuffer src) {
+        CBORBuilder builder = new CBORBuilder();
+        while (true) {
+            int code = src.get() & 0xff;
+            long len = CBOR.checkLen(code, CBOR.parseLen(src, code));
+            boolean done;
+            switch (code >>> 5) {
+                case 0:
+                    done = builder.value(CBOR.parseNumber(len));
+                    break;
+                case 1:
+                    done = builder.value(CBOR.parseUnSigned(len));
+                    break;
+                case 2:
+                    ByteBuffer bin = string(src, len, code);
+                    done = builder.string(sliceBytes ? bin.asReadOnlyBuffer() : CBOR.bytes(bin), len);
+                    break;
+                case 3:
+                    ByteBuffer utf8 = string(src, len, code);
+                    boolean key = builder.keyNext();
+                    if (lazyText && !key) {
+                        done = builder.string(new CBORText(utf8), len);
+                    } else if (key && keyCache != null) {
+                        done = builder.string(keyCache.get(utf8), len);
+                    } else {
+                        done = builder.string(StandardCharsets.UTF_8.decode(utf8).toString(), len);
+                    }
+                    break;
+                case 4:
+                    done = builder.startArray(len);
+                    break;
+                case 5:
+                    done = builder.startMap(len);
+                    break;
+                case 6:
+                    builder.tag(len);
+                    done = false;
+                    break;
+                default:
+                    if (code == 0xff) {
+                        done = builder.end();
+                    } else {
+                        done = builder.other(code & 0x1f, len);
+                    }
+                    break;
+            }
+            if (done) {
+                return builder.result();
+            }
+        }
+    }
+
+    /**
+     * major 2, 3 の中身.
+     *
+     * @param src 入力
+     * @param len 長さ -1 は不定長
+     * @param code 先頭バイト
+     * @return 中身. 定長のときは src の slice
+     */
+    private static ByteBuffer string(ByteBuffer src, long len, int code) {
+        if (len >= 0) {
+            if (len > src.remaining()) {
+                throw new IllegalStateException("途中で終わった");
+            }
+            return slice(src, (int) len);
+        }
+        // 不定長は2回読む. 1回目で長さを数える
+        int start = src.position();
+        long total = 0;
+        int c = src.get() & 0xff;
+        while (c != 0xff) {
+            long l = CBOR.checkLen(c, CBOR.parseLen(src, c));
+            if ((c >>> 5) != (code >>> 5) || l < 0 || l > src.remaining()) {
+                throw new IllegalStateException("不定長の分割が不正");
+            }
+            total += l;
+            src.position(src.position() + (int) l);
+            c = src.get() & 0xff;
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new UnsupportedOperationException("大きすぎ");
+        }
+        int end = src.position();
+        src.position(start);
+        ByteBuffer ret = ByteBuffer.allocate((int) total);
+        c = src.get() & 0xff;
+        while (c != 0xff) {
+            ret.put(slice(src, (int) CBOR.parseLen(src, c)));
+            c = src.get() & 0xff;
+        }
+        src.position(end);
+        ret.flip();
+        return ret;
+    }
+
+    private static ByteBuffer slice(ByteBuffer src, int len) {
+        ByteBuffer s = src.duplicate();
+        s.limit(src.position() + len);
+        src.position(src.position() + len);
+        return s.slice();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 符号化の作業用領域の使い回し.
+ * スレッドごとに決まる枠に1つずつ置く. 枠の数で上限が決まる.
+ * 大きくなりすぎたものは戻さず捨てる.
+ * ロックなしで複数スレッドから使える.
+ */
+public class CBORBufferPool {
+
+    private static final CBORBufferPool DEFAULT = new CBORBufferPool(64, 8192, 1 << 20);
+
+    private final AtomicReferenceArray<byte[]> heap;
+    private final AtomicReferenceArray<ByteBuffer> direct;
+    private final int mask;
+    private final int initialCapacity;
+    private final int maxCapacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     *
+     * @param slots 枠の数. 2のべき乗に切り上げる
+     * @param initialCapacity 新しく作る大きさ
+     * @param maxCapacity 戻せる最大の大きさ
+     */
+    public CBORBufferPool(int slots, int initialCapacity, int maxCapacity) {
+        int n = Integer.highestOneBit(Math.max(slots - 1, 1)) << 1;
+        heap = new AtomicReferenceArray<>(n);
+        direct = new AtomicReferenceArray<>(n);
+        mask = n - 1;
+        this.initialCapacity = initialCapacity;
+        this.maxCapacity = maxCapacity;
+    }
+
+    /**
+     * CBOR.build などで使う共有のもの.
+     *
+     * @return 共有の pool
+     */
+    public static CBORBufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    private int slot() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9e3779b97f4a7c15L) >>> 40) & mask;
+    }
+
+    /**
+     * 作業用の byte[] を借りる.
+     *
+     * @return 中身は不定
+     */
+    public byte[] acquire() {
+        byte[] b = heap.getAndSet(slot(), null);
+        if (b != null) {
+            hits.increment();
+            return b;
+        }
+        misses.increment();
+        return new byte[initialCapacity];
+    }
+
+    /**
+     * 返す. 大きすぎるもの, 枠が埋まっているときは捨てる.
+     *
+     * @param b acquire したもの. 大きくしたものでもよい
+     */
+    public void release(byte[] b) {
+        if (b != null && b.length <= maxCapacity) {
+            heap.compareAndSet(slot(), null, b);
+        }
+    }
+
+    /**
+     * 作業用の direct ByteBuffer を借りる.
+     *
+     * @return clear したもの
+     */
+    public ByteBuffer acquireDirect() {
+        ByteBuffer b = direct.getAndSet(slot(), null);
+        if (b != null) {
+            hits.increment();
+            b.clear();
+            return b;
+        }
+        misses.increment();
+        return ByteBuffer.allocateDirect(initialCapacity);
+    }
+
+    /**
+     * 返す. 大きすぎるもの, 枠が埋まっているときは捨てる.
+     *
+     * @param b acquireDirect したもの
+     */
+    public void release(ByteBuffer b) {
+        if (b != null && b.isDirect() && b.capacity() <= maxCapacity) {
+            direct.compareAndSet(slot(), null, b);
+        }
+    }
+
+    /**
+     * 使い回せた回数.
+     *
+     * @return 回数
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * 新しく作った回数.
+     *
+     * @return 回数
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * 戻せる最大の大きさ.
+     *
+     * @return バイト数
+     */
+    public int maxCapacity() {
+        return maxCapacity;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * イベントから List / Map の木を組み立てる.
+ * 再帰せず明示的なスタックで入れ子を持つ.
+ * stringref (tag 25, 256), 値の共有 (tag 28, 29), Packed CBOR (tag 113) の参照は読んだ順に解決する.
+ */
+class CBORBuilder {
+
+    private static final int ARRAY = 0;
+    private static final int MAP = 1;
+    private static final int TAG = 2;
+
+    /**
+     * Map のキー待ち
+     */
+    private static final Object NO_KEY = new Object();
+
+    private int[] types = new int[16];
+    /**
+     * 残り要素数. -1 は不定長. Map はキーと値で2つ
+     */
+    private long[] remain = new long[16];
+    private long[] tags = new long[16];
+    private Object[] values = new Object[16];
+    private Object[] keys = new Object[16];
+    private int depth;
+
+    private Object result;
+
+    private final CBORTags tagTable;
+
+    /**
+     * stringref の表. tag 256 ごと
+     */
+    private final List<List<Object>> stringRefs = new ArrayList<>();
+    /**
+     * Packed CBOR の共有要素. tag 113 ごと
+     */
+    private final List<List> packed = new ArrayList<>();
+    /**
+     * tag 28 の値. 配列, Map は中身より先に入れるので循環も同じものになる
+     */
+    private final List<Object> shared = new ArrayList<>();
+    /**
+     * 整数だけがキーの Map を CBORIntMap にする
+     */
+    private boolean intKeyMap;
+
+    CBORBuilder() {
+        this(CBORTags.getDefault());
+    }
+
+    /**
+     *
+     * @param tags タグの変換表
+     */
+    CBORBuilder(CBORTags tags) {
+        tagTable = tags;
+    }
+
+    /**
+     * 整数だけがキーの Map を CBORIntMap にする.
+     * キーの順は決定的な符号化の順になる.
+     *
+     * @param intKeyMap CBORIntMap にする
+     */
+    void setIntKeyMap(boolean intKeyMap) {
+        this.intKeyMap = intKeyMap;
+    }
+
+    /**
+     * 組み立て途中か.
+     *
+     * @return 途中の配列, Map, タグがある
+     */
+    boolean isNested() {
+        return depth > 0;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    /**
+     * 次の値が Map のキーになるか.
+     *
+     * @return キー
+     */
+    boolean keyNext() {
+        return depth > 0 && types[depth - 1] == MAP && keys[depth - 1] == NO_KEY;
+    }
+
+    private void push(int type, long count, Object value) {
+        if (depth == types.length) {
+            int n = depth * 2;
+            types = Arrays.copyOf(types, n);
+            remain = Arrays.copyOf(remain, n);
+            tags = Arrays.copyOf(tags, n);
+            values = Arrays.copyOf(values, n);
+            keys = Arrays.copyOf(keys, n);
+        }
+        types[depth] = type;
+        remain[depth] = count;
+        values[depth] = value;
+        keys[depth] = NO_KEY;
+        depth++;
+    }
+
+    private Object pop() {
+        depth--;
+        Object v = values[depth];
+        values[depth] = null;
+        keys[depth] = null;
+        return v;
+    }
+
+    /**
+     * major 4.
+     *
+     * @param len 要素数 -1 は不定長
+     * @return トップレベルの要素が完成した
+     */
+    boolean startArray(long len) {
+        if (len < -1) {
+            throw new IllegalStateException("長さが大きすぎる");
+        }
+        List list = new ArrayList();
+        shareStart(list);
+        if (len == 0) {
+            return value(list);
+        }
+        push(ARRAY, len, list);
+        return false;
+    }
+
+    /**
+     * major 5.
+     *
+     * @param len 要素数 -1 は不定長
+     * @return トップレベルの要素が完成した
+     */
+    boolean startMap(long len) {
+        if (len < -1 || len > Long.MAX_VALUE / 2) {
+            throw new IllegalStateException("長さが大きすぎる");
+        }
+        if (len == 0) {
+            Map map = new LinkedHashMap();
+            shareStart(map);
+            return value(map);
+        }
+        // 整数以外のキーが来たら LinkedHashMap にする. 共有値は入れ替えられない
+        Map map = intKeyMap && !isShareable() ? new CBORIntMap() : new LinkedHashMap();
+        shareStart(map);
+        push(MAP, len < 0 ? -1 : len * 2, map);
+        return false;
+    }
+
+    /**
+     * tag 28 の直下なら中身を読む前に共有値にする.
+     */
+    private void shareStart(Object container) {
+        if (isShareable()) {
+            shared.set((Integer) values[depth - 1], container);
+        }
+    }
+
+    private boolean isShareable() {
+        return depth > 0 && types[depth - 1] == TAG && tags[depth - 1] == CBORTag.SHAREABLE;
+    }
+
+    /**
+     * major 6. 次の値にかかる.
+     *
+     * @param tag タグ番号
+     */
+    void tag(long tag) {
+        push(TAG, 1, null);
+        tags[depth - 1] = tag;
+        if (tag == CBORTag.STRINGREF_NAMESPACE) {
+            stringRefs.add(new ArrayList<>());
+        } else if (tag == CBORTag.SHAREABLE) {
+            values[depth - 1] = shared.size();
+            shared.add(NO_KEY);
+        }
+    }
+
+    /**
+     * 参照の解決とタグの変換.
+     *
+     * @param tag タグ番号
+     * @param v タグ付けされた値
+     * @return 変換後の値
+     */
+    private Object tag(long tag, Object v) {
+        if (tag == CBORTag.STRINGREF_NAMESPACE) {
+            stringRefs.remove(stringRefs.size() - 1);
+            return v;
+        } else if (tag == CBORTag.STRINGREF && !stringRefs.isEmpty() && v instanceof Long) {
+            List<Object> refs = stringRefs.get(stringRefs.size() - 1);
+            long index = (Long) v;
+            if (index < 0 || index >= refs.size()) {
+                throw new IllegalStateException("stringref がない " + index);
+            }
+            return refs.get((int) index);
+        } else if (tag == CBORTag.SHARED_REF && v instanceof Long) {
+            long index = (Long) v;
+            if (index < 0 || index >= shared.size() || shared.get((int) index) == NO_KEY) {
+                throw new IllegalStateException("共有値がない " + index);
+            }
+            return shared.get((int) index);
+        } else if (tag == CBORTag.PACKED_SHARED && !packed.isEmpty() && v instanceof Long) {
+            long n = (Long) v;
+            // 正は 16 + 2n, 負は 16 + 2n + 1
+            return shared(n >= 0 ? 16 + 2 * n : 16 + 2 * (-1 - n) + 1);
+        } else if (tag == CBORTag.PACKED && v instanceof List && !((List) v).isEmpty()) {
+            packed.remove(packed.size() - 1);
+            List list = (List) v;
+            if (list.size() >= 2) { // [共有, (引数,) rump]
+                return list.get(list.size() - 1);
+            }
+        }
+        return tagTable.decode(tag, v);
+    }
+
+    /**
+     * 文字列, バイト列.
+     * stringref の範囲内では参照表に入れる.
+     *
+     * @param v 値
+     * @param len 符号化したバイト数. -1 は不定長
+     * @return トップレベルの要素が完成した
+     */
+    boolean string(Object v, long len) {
+        if (!stringRefs.isEmpty() && len >= 0) {
+            List<Object> refs = stringRefs.get(stringRefs.size() - 1);
+            if (CBORFormat.stringRefWorth(refs.size(), len)) {
+                refs.add(v);
+            }
+        }
+        return value(v);
+    }
+
+    /**
+     * major 7. Packed CBOR の範囲内では simple 0-15 を共有要素にする.
+     *
+     * @param code 先頭バイトの下位5bit
+     * @param len 引数
+     * @return トップレベルの要素が完成した
+     */
+    boolean other(int code, long len) {
+        if (!packed.isEmpty() && code < 16) {
+            return value(shared(code));
+        }
+        return value(CBOR.other(code, len));
+    }
+
+    private Object shared(long index) {
+        List table = packed.get(packed.size() - 1);
+        if (index < 0 || index >= table.size()) {
+            throw new IllegalStateException("共有要素がない " + index);
+        }
+        return table.get((int) index);
+    }
+
+    /**
+     * 不定長の終わり.
+     *
+     * @return トップレベルの要素が完成した
+     */
+    boolean end() {
+        if (depth == 0 || remain[depth - 1] != -1) {
+            throw new IllegalStateException("BREAK");
+        }
+        if (keys[depth - 1] != NO_KEY) {
+            throw new IllegalStateException("Mapの値がない");
+        }
+        return value(pop());
+    }
+
+    /**
+     * 値をひとつ追加する.
+     *
+     * @param v 値
+     * @return トップレベルの要素が完成した
+     */
+    boolean value(Object v) {
+        while (depth > 0) {
+            int d = depth - 1;
+            switch (types[d]) {
+                case ARRAY:
+                    List list = (List) values[d];
+                    list.add(v);
+                    if (list.size() == 1 && d > 0 && types[d - 1] == TAG && tags[d - 1] == CBORTag.PACKED) {
+                        // 先頭が共有要素の表. rump より先に読める
+                        packed.add(v instanceof List ? (List) v : new ArrayList());
+                    }
+                    break;
+                case MAP:
+                    if (keys[d] == NO_KEY) {
+                        keys[d] = v;
+                    } else {
+                        if (values[d] instanceof CBORIntMap && !(keys[d] instanceof Long)) {
+                            values[d] = new LinkedHashMap((Map) values[d]);
+                        }
+                        ((Map) values[d]).put(keys[d], v);
+                        keys[d] = NO_KEY;
+                    }
+                    break;
+                default: // TAG
+                    Object index = pop();
+                    if (tags[d] == CBORTag.SHAREABLE) {
+                        shared.set((Integer) index, v);
+                    } else {
+                        v = tag(tags[d], v);
+                    }
+                    continue;
+            }
+            if (remain[d] > 0 && --remain[d] == 0) {
+                v = pop();
+                continue;
+            }
+            return false;
+        }
+        result = v;
+        shared.clear();
+        return true;
+    }
+
+    /**
+     * 完成したトップレベルの要素を取り出す.
+     *
+     * @return 値
+     */
+    Object result() {
+        Object r = result;
+        result = null;
+        return r;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 列ごとにまとめた Map の並び.
+ * CBORColumnReader が作る. 行数は size まで.
+ */
+public class CBORColumnBatch {
+
+    /**
+     * 列の型
+     */
+    public enum Type {
+        /** long[] */
+        LONG,
+        /** double[] */
+        DOUBLE,
+        /** 辞書の番号 int[] と辞書 */
+        STRING,
+        /** 型が混ざるもの, 配列, Map など Object[] */
+        OBJECT
+    }
+
+    /**
+     * 1列.
+     * 配列は行数より長いことがある. size まで使う.
+     */
+    public static final class Column {
+
+        private final String name;
+        private final Type type;
+        private final int size;
+        private final Object data;
+        private final List<String> dictionary;
+        private final BitSet nulls;
+
+        Column(String name, Type type, int size, Object data, List<String> dictionary, BitSet nulls) {
+            this.name = name;
+            this.type = type;
+            this.size = size;
+            this.data = data;
+            this.dictionary = dictionary;
+            this.nulls = nulls;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Type type() {
+            return type;
+        }
+
+        /**
+         * 行数.
+         *
+         * @return 行数
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * null, undefined, キーがない.
+         *
+         * @param row 行
+         * @return 値がない
+         */
+        public boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        private Object data(Type t) {
+            if (type != t) {
+                throw new IllegalStateException(name + " は " + type);
+            }
+            return data;
+        }
+
+        /**
+         * LONG の値. null の行は 0.
+         *
+         * @return 写さない中身
+         */
+        public long[] longs() {
+            return (long[]) data(Type.LONG);
+        }
+
+        /**
+         * DOUBLE の値. null の行は 0.
+         *
+         * @return 写さない中身
+         */
+        public double[] doubles() {
+            return (double[]) data(Type.DOUBLE);
+        }
+
+        /**
+         * STRING の辞書の番号. null の行は -1.
+         *
+         * @return 写さない中身
+         */
+        public int[] codes() {
+            return (int[]) data(Type.STRING);
+        }
+
+        /**
+         * STRING の辞書. この batch の中で出てきた順.
+         *
+         * @return 辞書
+         */
+        public List<String> dictionary() {
+            data(Type.STRING);
+            return dictionary;
+        }
+
+        /**
+         * OBJECT の値.
+         *
+         * @return 写さない中身
+         */
+        public Object[] objects() {
+            return (Object[]) data(Type.OBJECT);
+        }
+
+        /**
+         * 1行の値. 型に合わせて箱に入れる.
+         *
+         * @param row 行
+         * @return 値 または null
+         */
+        public Object get(int row) {
+            if (row >= size) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (nulls.get(row)) {
+                return null;
+            }
+            switch (type) {
+                case LONG:
+                    return ((long[]) data)[row];
+                case DOUBLE:
+                    return ((double[]) data)[row];
+                case STRING:
+                    return dictionary.get(((int[]) data)[row]);
+                default:
+                    return ((Object[]) data)[row];
+            }
+        }
+    }
+
+    private final int size;
+    private final List<Column> columns;
+
+    CBORColumnBatch(int size, List<Column> columns) {
+        this.size = size;
+        this.columns = Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * 行数.
+     *
+     * @return 行数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 列. 最初に出てきた順.
+     *
+     * @return 列
+     */
+    public List<Column> columns() {
+        return columns;
+    }
+
+    /**
+     * 名前で列を探す.
+     *
+     * @param name キー
+     * @return 列 または null
+     */
+    public Column column(String name) {
+        for (Column c : columns) {
+            if (c.name.equals(name)) {
+                return c;
+            }
+        }
+        return null;
+    }
+}
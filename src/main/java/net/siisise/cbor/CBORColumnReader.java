@@ -0,0 +1,402 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import net.siisise.io.Input;
+
+/**
+ * Map の配列を列ごとに読む.
+ * [{"ts": 1, "id": "a", "value": 1.5}, ...] の各キーを列にし,
+ * 整数は long[], 浮動小数点は double[], 文字列は辞書と番号, 型が混ざる列は Object[] に入れる.
+ * 行の Map は作らない. 1回読むだけで batchSize 行ずつ返す.
+ * トップレベルが配列でなく Map のときは CBOR Sequence として EOF まで読む.
+ * 列を define したときは define したものだけ読み, ほかのキーは読み飛ばす.
+ * 整数のキーは10進の文字列を名前にする.
+ */
+public class CBORColumnReader implements Iterator<CBORColumnBatch> {
+
+    private static final CBORKeyCache KEYS = new CBORKeyCache();
+    /**
+     * 列の配列の最初の大きさ. 足りなくなったら倍にする
+     */
+    private static final int INITIAL_ROWS = 64;
+
+    private final CBORReader reader;
+    private final CBORDecoder decoder = new CBORDecoder();
+    private final CBORKeyCache values = new CBORKeyCache();
+    private int batchSize = 8192;
+
+    private final List<Builder> columns = new ArrayList<>();
+    private final Map<String, Builder> names = new HashMap<>();
+    private boolean schema;
+
+    /**
+     * 0: 読み始め 1: 配列の中 2: Sequence 3: 終わり
+     */
+    private int state;
+    private CBORColumnBatch next;
+
+    public CBORColumnReader(byte[] src) {
+        this(new CBORReader(src));
+        reader.setMaxDepth(CBOR.MAX_DEPTH);
+    }
+
+    public CBORColumnReader(Input in) {
+        this(new CBORReader(in));
+        reader.setMaxDepth(CBOR.MAX_DEPTH);
+    }
+
+    /**
+     *
+     * @param reader 読み始める前のもの
+     */
+    public CBORColumnReader(CBORReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * 1回に返す行数.
+     *
+     * @param rows 行数
+     */
+    public void setBatchSize(int rows) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException();
+        }
+        batchSize = rows;
+    }
+
+    /**
+     * OBJECT の列で使うタグの変換表.
+     *
+     * @param tags 変換表
+     */
+    public void setTags(CBORTags tags) {
+        decoder.setTags(tags);
+    }
+
+    /**
+     * 読む列と型. 型の違う値があるとその batch では OBJECT になる.
+     * DOUBLE の列は整数も変換して入れる.
+     *
+     * @param name キー
+     * @param type 型. null は推測する
+     */
+    public void define(String name, CBORColumnBatch.Type type) {
+        Builder c = names.get(name);
+        if (c == null) {
+            c = new Builder(name);
+            columns.add(c);
+            names.put(name, c);
+        }
+        c.defined = type;
+        schema = true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && state != 3) {
+            next = read();
+        }
+        return next != null;
+    }
+
+    /**
+     * 次の batchSize 行.
+     *
+     * @return 列の集まり
+     */
+    @Override
+    public CBORColumnBatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        CBORColumnBatch b = next;
+        next = null;
+        return b;
+    }
+
+    private CBORColumnBatch read() {
+        if (state == 0) {
+            CBORReader.Event e = reader.next();
+            if (e == CBORReader.Event.START_ARRAY) {
+                state = 1;
+                reader.next();
+            } else if (e == CBORReader.Event.START_MAP) {
+                state = 2;
+            } else if (e == CBORReader.Event.EOF) {
+                state = 3;
+                return null;
+            } else {
+                throw new IllegalStateException("Map の配列ではない");
+            }
+        } else {
+            reader.next();
+        }
+        for (Builder c : columns) {
+            c.start();
+        }
+        int row = 0;
+        while (row < batchSize) {
+            CBORReader.Event e = reader.event();
+            if ((state == 1 && e == CBORReader.Event.BREAK) || (state == 2 && e == CBORReader.Event.EOF)) {
+                state = 3;
+                break;
+            } else if (e != CBORReader.Event.START_MAP) {
+                throw new IllegalStateException("Map ではない行 " + e);
+            }
+            readRow(row++);
+            if (row < batchSize) {
+                reader.next();
+            }
+        }
+        if (row == 0) {
+            return null;
+        }
+        List<CBORColumnBatch.Column> cols = new ArrayList<>(columns.size());
+        for (Builder c : columns) {
+            cols.add(c.build(row));
+        }
+        return new CBORColumnBatch(row, cols);
+    }
+
+    private void readRow(int row) {
+        int k = 0;
+        while (reader.next() != CBORReader.Event.BREAK) {
+            String key = key();
+            // 行ごとに同じ順で並んでいることが多い
+            Builder c = k < columns.size() && columns.get(k).name == key ? columns.get(k) : names.get(key);
+            k++;
+            reader.next();
+            if (c == null) {
+                if (schema) {
+                    reader.skip();
+                    continue;
+                }
+                c = new Builder(key);
+                c.start();
+                columns.add(c);
+                names.put(key, c);
+            }
+            c.fill(row);
+            c.read(this);
+        }
+        for (Builder c : columns) {
+            c.fill(row + 1);
+        }
+    }
+
+    private String key() {
+        switch (reader.event()) {
+            case TEXT:
+                return reader.stringValue(KEYS);
+            case INT:
+                return Long.toString(reader.longValue());
+            default:
+                throw new IllegalStateException("キーが文字列, 整数ではない " + reader.event());
+        }
+    }
+
+    /**
+     * 組み立て中の列.
+     */
+    private static final class Builder {
+
+        final String name;
+        CBORColumnBatch.Type defined;
+        /**
+         * この batch の型. null はまだ値がない
+         */
+        CBORColumnBatch.Type type;
+        long[] longs;
+        double[] doubles;
+        int[] codes;
+        Object[] objects;
+        Map<String, Integer> dictionary;
+        List<String> words;
+        BitSet nulls;
+        int size;
+
+        Builder(String name) {
+            this.name = name;
+        }
+
+        void start() {
+            type = null;
+            longs = null;
+            doubles = null;
+            codes = null;
+            objects = null;
+            dictionary = null;
+            words = null;
+            nulls = new BitSet();
+            size = 0;
+            if (defined != null) {
+                as(defined);
+            }
+        }
+
+        /**
+         * 型を決めて配列を用意する. それまでの行は null.
+         */
+        private void as(CBORColumnBatch.Type t) {
+            type = t;
+            int capacity = Math.max(INITIAL_ROWS, size);
+            switch (t) {
+                case LONG:
+                    longs = new long[capacity];
+                    break;
+                case DOUBLE:
+                    doubles = new double[capacity];
+                    break;
+                case STRING:
+                    codes = new int[capacity];
+                    Arrays.fill(codes, 0, size, -1);
+                    dictionary = new HashMap<>();
+                    words = new ArrayList<>();
+                    break;
+                default:
+                    objects = new Object[capacity];
+                    break;
+            }
+        }
+
+        /**
+         * 1行足せるようにする.
+         */
+        private void grow() {
+            if (type == null) {
+                return;
+            }
+            switch (type) {
+                case LONG:
+                    if (size == longs.length) {
+                        longs = Arrays.copyOf(longs, size * 2);
+                    }
+                    break;
+                case DOUBLE:
+                    if (size == doubles.length) {
+                        doubles = Arrays.copyOf(doubles, size * 2);
+                    }
+                    break;
+                case STRING:
+                    if (size == codes.length) {
+                        codes = Arrays.copyOf(codes, size * 2);
+                    }
+                    break;
+                default:
+                    if (size == objects.length) {
+                        objects = Arrays.copyOf(objects, size * 2);
+                    }
+                    break;
+            }
+        }
+
+        /**
+         * row 行目まで null で埋める.
+         * 同じキーが2回あったときは後のものにする.
+         */
+        void fill(int row) {
+            if (size > row) {
+                size = row;
+                nulls.clear(row);
+            }
+            while (size < row) {
+                grow();
+                nulls.set(size);
+                if (codes != null) {
+                    codes[size] = -1;
+                }
+                size++;
+            }
+        }
+
+        void read(CBORColumnReader cr) {
+            CBORReader r = cr.reader;
+            CBORReader.Event e = r.event();
+            if (e == CBORReader.Event.NULL || e == CBORReader.Event.UNDEFINED) {
+                fill(size + 1);
+                return;
+            }
+            if (type == null) {
+                as(e == CBORReader.Event.INT ? CBORColumnBatch.Type.LONG
+                        : e == CBORReader.Event.FLOAT ? CBORColumnBatch.Type.DOUBLE
+                        : e == CBORReader.Event.TEXT ? CBORColumnBatch.Type.STRING : CBORColumnBatch.Type.OBJECT);
+            }
+            grow();
+            if (type == CBORColumnBatch.Type.LONG && e == CBORReader.Event.INT && r.length() >= 0) {
+                longs[size++] = r.longValue();
+            } else if (type == CBORColumnBatch.Type.DOUBLE && (e == CBORReader.Event.FLOAT
+                    || (e == CBORReader.Event.INT && r.length() >= 0))) {
+                doubles[size++] = r.doubleValue();
+            } else if (type == CBORColumnBatch.Type.STRING && e == CBORReader.Event.TEXT) {
+                String s = r.stringValue(cr.values);
+                Integer code = dictionary.get(s);
+                if (code == null) {
+                    code = words.size();
+                    dictionary.put(s, code);
+                    words.add(s);
+                }
+                codes[size++] = code;
+            } else {
+                if (type != CBORColumnBatch.Type.OBJECT) {
+                    toObjects();
+                }
+                objects[size++] = e == CBORReader.Event.INT || e == CBORReader.Event.FLOAT ? r.numberValue()
+                        : e == CBORReader.Event.TEXT ? r.stringValue() : cr.decoder.read(r);
+            }
+        }
+
+        /**
+         * 型が混ざったので箱に入れなおす.
+         */
+        private void toObjects() {
+            Object[] o = new Object[Math.max(INITIAL_ROWS, size * 2)];
+            for (int i = 0; i < size; i++) {
+                if (!nulls.get(i)) {
+                    o[i] = type == CBORColumnBatch.Type.LONG ? (Object) longs[i]
+                            : type == CBORColumnBatch.Type.DOUBLE ? (Object) doubles[i] : words.get(codes[i]);
+                }
+            }
+            longs = null;
+            doubles = null;
+            codes = null;
+            dictionary = null;
+            words = null;
+            objects = o;
+            type = CBORColumnBatch.Type.OBJECT;
+        }
+
+        CBORColumnBatch.Column build(int rows) {
+            fill(rows);
+            if (type == null) { // 全部 null
+                as(CBORColumnBatch.Type.OBJECT);
+            }
+            Object data = type == CBORColumnBatch.Type.LONG ? longs
+                    : type == CBORColumnBatch.Type.DOUBLE ? doubles
+                    : type == CBORColumnBatch.Type.STRING ? codes : objects;
+            return new CBORColumnBatch.Column(name, type, rows, data, words, nulls);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.nio.charset.StandardCharsets;
+import net.siisise.block.ReadableBlock;
+import net.siisise.io.Input;
+
+/**
+ * 再帰しない CBOR 展開.
+ * CBORReader のイベントを CBORBuilder で組み立てる.
+ * 深さ, 要素数, 文字列の長さ, 確保する総バイト数に上限を付けられる.
+ * 設定後は複数スレッドから parse してもよい.
+ */
+public class CBORDecoder {
+
+    private int maxDepth = CBOR.MAX_DEPTH;
+    private long maxItems = Long.MAX_VALUE;
+    private int maxStringLength = Integer.MAX_VALUE - 8;
+    private long maxBytes = Long.MAX_VALUE;
+    private CBORKeyCache keyCache;
+    private CBORTags tags = CBORTags.getDefault();
+    private boolean intKeyMap;
+
+    /**
+     * 入れ子の上限. 配列, Map, タグの深さ.
+     *
+     * @param maxDepth 深さ
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * 1要素に含まれる要素数の上限.
+     *
+     * @param maxItems 要素数
+     */
+    public void setMaxItems(long maxItems) {
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * byte string, text string 1つの長さの上限.
+     *
+     * @param maxStringLength バイト数
+     */
+    public void setMaxStringLength(int maxStringLength) {
+        this.maxStringLength = maxStringLength;
+    }
+
+    /**
+     * byte string, text string の合計の上限.
+     *
+     * @param maxBytes バイト数
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Map のキーを共有する.
+     *
+     * @param keyCache 共有表. null で使わない
+     */
+    public void setKeyCache(CBORKeyCache keyCache) {
+        this.keyCache = keyCache;
+    }
+
+    /**
+     * タグの変換表.
+     *
+     * @param tags 変換表
+     */
+    public void setTags(CBORTags tags) {
+        this.tags = tags;
+    }
+
+    /**
+     * キーがすべて整数の Map を CBORIntMap にする. COSE, CWT など.
+     * キーは決定的な符号化の順に並び, 来た順は残らない.
+     * 初期値は false で, Map はすべて来た順の LinkedHashMap.
+     *
+     * @param intKeyMap CBORIntMap にする
+     */
+    public void setIntKeyMap(boolean intKeyMap) {
+        this.intKeyMap = intKeyMap;
+    }
+
+    public Object parse(byte[] src) {
+        return parse(ReadableBlock.wrap(src));
+    }
+
+    /**
+     * 1要素読む.
+     *
+     * @param in 入力
+     * @return 抽出データ
+     */
+    public Object parse(Input in) {
+        CBORReader reader = new CBORReader(in);
+        reader.setMaxDepth(maxDepth);
+        reader.next();
+        return read(reader);
+    }
+
+    /**
+     * reader の現在のイベントから1要素組み立てる.
+     * 終わったときは要素の後ろまで進んでいる.
+     *
+     * @param reader 要素の最初のイベントを読んだところ
+     * @return 抽出データ
+     */
+    Object read(CBORReader reader) {
+        CBORReader.Event e = reader.event();
+        int base = reader.depth() - (e == CBORReader.Event.START_ARRAY || e == CBORReader.Event.START_MAP ? 1 : 0);
+        CBORBuilder builder = new CBORBuilder(tags);
+        builder.setIntKeyMap(intKeyMap);
+        long items = 0;
+        long bytes = 0;
+        while (true) {
+            if (e != CBORReader.Event.BREAK && ++items > maxItems) {
+                throw new IllegalStateException("要素数が上限を超えた");
+            }
+            boolean done;
+            switch (e) {
+                case INT:
+                case FLOAT:
+                    done = builder.value(reader.numberValue());
+                    break;
+                case TEXT:
+                    if (keyCache != null && builder.keyNext() && reader.length() >= 0
+                            && reader.length() <= Math.min(keyCache.maxLength(), maxStringLength)) {
+                        bytes += reader.length();
+                        if (bytes > maxBytes) {
+                            throw new IllegalStateException("確保するバイト数が上限を超えた");
+                        }
+                        done = builder.string(reader.stringValue(keyCache), reader.length());
+                        break;
+                    }
+                    // 共有しないものは BYTES と同じ
+                case BYTES:
+                    // 読む前に残りの枠で長さを確認する
+                    reader.setMaxStringLength((int) Math.min(maxStringLength, maxBytes - bytes));
+                    byte[] data = reader.bytesValue();
+                    bytes += data.length;
+                    if (bytes > maxBytes) {
+                        throw new IllegalStateException("確保するバイト数が上限を超えた");
+                    }
+                    done = builder.string(e == CBORReader.Event.TEXT ? new String(data, StandardCharsets.UTF_8) : data, reader.length());
+                    break;
+                case START_ARRAY:
+                    done = builder.startArray(reader.length());
+                    break;
+                case START_MAP:
+                    done = builder.startMap(reader.length());
+                    break;
+                case TAG:
+                    if (builder.depth() >= maxDepth) {
+                        throw new IllegalStateException("入れ子が上限を超えた");
+                    }
+                    builder.tag(reader.tag());
+                    done = false;
+                    break;
+                case BREAK:
+                    // 定長の終わりは builder 側で閉じている
+                    done = reader.length() < 0 && builder.end();
+                    break;
+                case EOF:
+                    throw new IllegalStateException("途中で終わった");
+                default:
+                    done = builder.other(reader.additional(), reader.length());
+                    break;
+            }
+            if (done) {
+                // 定長の終わりの BREAK を読んでおく
+                while (reader.depth() > base) {
+                    reader.next();
+                }
+                return builder.result();
+            }
+            e = reader.next();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 使い回せる符号化.
+ * 作業用の領域は CBORBufferPool から借りて, 終わったら返す.
+ * 設定した CBORFormat を変えなければ複数スレッドから使える.
+ */
+public class CBOREncoder {
+
+    private static final CBOREncoder DEFAULT = new CBOREncoder();
+
+    private final CBORFormat format;
+    private final CBORBufferPool pool;
+
+    public CBOREncoder() {
+        this(new CBORFormat(), CBORBufferPool.getDefault());
+    }
+
+    /**
+     *
+     * @param format 設定
+     * @param pool 作業用の領域
+     */
+    public CBOREncoder(CBORFormat format, CBORBufferPool pool) {
+        this.format = format;
+        this.pool = pool;
+    }
+
+    /**
+     * CBOR.build で使う共有のもの.
+     *
+     * @return 標準の設定
+     */
+    public static CBOREncoder getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 1要素を符号化する.
+     *
+     * @param obj 値
+     * @return CBOR
+     */
+    public byte[] encode(Object obj) {
+        CBORWriter writer = new CBORWriter(pool.acquire(), format);
+        try {
+            writer.write(obj);
+            return writer.toByteArray();
+        } catch (IOException e) { // メモリ上なので起きない
+            throw new IllegalStateException(e);
+        } finally {
+            pool.release(writer.buffer());
+        }
+    }
+
+    /**
+     * 1要素を出力先へ書く.
+     *
+     * @param obj 値
+     * @param out 出力先
+     * @throws IOException 出力エラー
+     */
+    public void encode(Object obj, OutputStream out) throws IOException {
+        CBORWriter writer = new CBORWriter(pool.acquire(), format);
+        try {
+            writer.write(obj);
+            out.write(writer.buffer(), 0, writer.size());
+        } finally {
+            pool.release(writer.buffer());
+        }
+    }
+
+    /**
+     * 1要素を出力先へ書く.
+     * 収まる大きさなら借りた direct ByteBuffer から書く.
+     *
+     * @param obj 値
+     * @param ch 出力先
+     * @throws IOException 出力エラー
+     */
+    public void encode(Object obj, WritableByteChannel ch) throws IOException {
+        CBORWriter writer = new CBORWriter(pool.acquire(), format);
+        ByteBuffer bb = null;
+        try {
+            writer.write(obj);
+            bb = pool.acquireDirect();
+            ByteBuffer src;
+            if (writer.size() <= bb.capacity()) {
+                bb.put(writer.buffer(), 0, writer.size());
+                bb.flip();
+                src = bb;
+            } else {
+                src = ByteBuffer.wrap(writer.buffer(), 0, writer.size());
+            }
+            while (src.hasRemaining()) {
+                ch.write(src);
+            }
+        } finally {
+            pool.release(writer.buffer());
+            pool.release(bb);
+        }
+    }
+}
@@ -15,12 +15,23 @@
  */
 package net.siisise.cbor;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
 import net.siisise.bind.Rebind;
 import net.siisise.bind.format.ContentBind;
 import net.siisise.io.Packet;
@@ -34,6 +45,323 @@ import net.siisise.lang.Binary16;
  */
 public class CBORFormat implements ContentBind<Packet> {
 
+    private boolean stringRef;
+    private boolean valueSharing;
+    private boolean deterministic;
+
+    private CBORTags tags = CBORTags.getDefault();
+
+    /**
+     * stringref の表. encode 中の文書ごとに作る.
+     * text string は String, byte string は ByteBuffer をキーにする.
+     */
+    private Map<Object, Long> refs;
+    /**
+     * 値の共有. encode 中の文書ごとに作る.
+     */
+    private CBORSharing sharing;
+
+    /**
+     * 繰り返し出てくる文字列, バイト列を stringref (tag 25, 256) で参照にする.
+     * encode で使う.
+     *
+     * @param stringRef 参照にする
+     */
+    public void setStringRef(boolean stringRef) {
+        this.stringRef = stringRef;
+    }
+
+    boolean isStringRef() {
+        return stringRef;
+    }
+
+    /**
+     * 2回以上出てくる Map, Collection, 配列を tag 28, 29 で共有する.
+     * 同じものかは同一性で判定する. 循環していてもよい.
+     *
+     * @param valueSharing 共有する
+     */
+    public void setValueSharing(boolean valueSharing) {
+        this.valueSharing = valueSharing;
+    }
+
+    boolean isValueSharing() {
+        return valueSharing;
+    }
+
+    /**
+     * RFC 8949 4.2 の決定的な符号化.
+     * Map のキーは符号化したバイト列の順, 最短の長さと浮動小数点, 不定長は使わない.
+     * 要素数のわからないものは全部読んでから定長で書く.
+     * stringref, 値の共有とは一緒に使えない.
+     *
+     * @param deterministic 決定的にする
+     */
+    public void setDeterministic(boolean deterministic) {
+        this.deterministic = deterministic;
+    }
+
+    boolean isDeterministic() {
+        return deterministic;
+    }
+
+    void checkDeterministic() {
+        if (deterministic && (stringRef || valueSharing)) {
+            throw new IllegalStateException("決定的な符号化では stringref, 値の共有は使えない");
+        }
+    }
+
+    /**
+     * タグの変換表. 登録されたクラスはタグ付きで符号化する.
+     *
+     * @param tags 変換表
+     */
+    public void setTags(CBORTags tags) {
+        this.tags = tags;
+    }
+
+    CBORTags tags() {
+        return tags;
+    }
+
+    /**
+     * 1要素を符号化する.
+     * stringref を使うときは tag 256 で囲み, 文書ごとに表を作る.
+     *
+     * @param obj 値
+     * @return CBOR
+     */
+    public Packet encode(Object obj) {
+        checkDeterministic();
+        if (!stringRef && !valueSharing) {
+            return value(obj);
+        }
+        CBORFormat doc = document(stringRef ? new HashMap<>() : null, valueSharing ? new CBORSharing(obj, tags) : null);
+        Packet pac = stringRef ? tag(CBORTag.STRINGREF_NAMESPACE) : new PacketA();
+        pac.write(doc.value(obj));
+        return pac;
+    }
+
+    /**
+     * 文書ごとの表を持つもの.
+     * CBORWriter, CBORSize が知らない型をここで変換するときも表を共有する.
+     *
+     * @param refs stringref の表 または null
+     * @param sharing 値の共有 または null
+     * @return 表を持つ CBORFormat
+     */
+    CBORFormat document(Map<Object, Long> refs, CBORSharing sharing) {
+        if (refs == null && sharing == null) {
+            return this;
+        }
+        CBORFormat doc = new CBORFormat();
+        doc.tags = tags;
+        doc.deterministic = deterministic;
+        doc.refs = refs;
+        doc.sharing = sharing;
+        return doc;
+    }
+
+    /**
+     * Packet を作らず出力先へ直接書く.
+     * 続けて書くときは CBORWriter を使う.
+     *
+     * @param obj 値
+     * @param out 出力先
+     * @throws IOException 出力エラー
+     */
+    public void encode(Object obj, OutputStream out) throws IOException {
+        CBORWriter writer = new CBORWriter(out, this);
+        writer.write(obj);
+        writer.flush();
+    }
+
+    /**
+     * Packet を作らず ByteBuffer へ直接書く.
+     *
+     * @param obj 値
+     * @param dst 出力先. position は要素の後ろへ進む
+     * @throws BufferOverflowException 入りきらない
+     */
+    public void encode(Object obj, ByteBuffer dst) {
+        try {
+            CBORWriter writer = new CBORWriter(dst, this);
+            writer.write(obj);
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 符号化したときのバイト数.
+     * バイト列は作らず, 文字列は UTF-8 の長さだけ数える.
+     *
+     * @param obj 値
+     * @return バイト数
+     * @throws UnsupportedOperationException Iterator など読まないとわからないもの
+     */
+    public long sizeOf(Object obj) {
+        return new CBORSize(this).sizeOf(obj);
+    }
+
+    /**
+     * sizeOf で大きさを決めて1回だけ確保して符号化する.
+     *
+     * @param obj 値
+     * @return CBOR
+     */
+    public byte[] toByteArray(Object obj) {
+        long size = sizeOf(obj);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new UnsupportedOperationException("大きすぎ");
+        }
+        CBORWriter writer = new CBORWriter(new byte[(int) size], this);
+        try {
+            writer.write(obj);
+        } catch (IOException e) { // メモリ上なので起きない
+            throw new IllegalStateException(e);
+        }
+        byte[] data = writer.buffer();
+        return writer.size() == data.length ? data : writer.toByteArray();
+    }
+
+    /**
+     * 要素ひとつ. CBORTags に登録されたクラスを先に見る.
+     *
+     * @param obj 値
+     * @return CBOR
+     */
+    Packet value(Object obj) {
+        if (sharing != null) {
+            Long index = sharing.reference(obj);
+            if (index != null) {
+                Packet pac = tag(CBORTag.SHARED_REF);
+                pac.write(cmd(0, index));
+                return pac;
+            }
+            // Bean は数えたときの Map にする
+            Map<?, ?> bean = sharing.properties(obj);
+            if (sharing.share(obj)) {
+                Packet pac = tag(CBORTag.SHAREABLE);
+                pac.write(bean != null ? mapFormat(bean) : item(obj));
+                return pac;
+            } else if (bean != null) {
+                return mapFormat(bean);
+            }
+        }
+        return item(obj);
+    }
+
+    /**
+     * 値の共有を見ない要素ひとつ.
+     *
+     * @param obj 値
+     * @return CBOR
+     */
+    Packet item(Object obj) {
+        if (obj instanceof Iterator || obj instanceof Stream
+                || CBORWriter.isIterable(obj)) { // 不定長の配列
+            Iterator it = obj instanceof Iterator ? (Iterator) obj
+                    : obj instanceof Stream ? ((Stream) obj).iterator() : ((Iterable) obj).iterator();
+            if (deterministic) { // 定長にする
+                List<Object> list = new ArrayList<>();
+                it.forEachRemaining(list::add);
+                if (obj instanceof Stream) {
+                    ((Stream) obj).close();
+                }
+                return value(list);
+            }
+            Packet pac = new PacketA();
+            pac.write(0x9f);
+            while (it.hasNext()) {
+                pac.write(value(it.next()));
+            }
+            pac.write(0xff);
+            if (obj instanceof Stream) {
+                ((Stream) obj).close();
+            }
+            return pac;
+        } else if (CBORWriter.isStream(obj)) { // Publisher
+            // 表を共有するため要素ごとに value を通す
+            List<Object> list = new ArrayList<>();
+            try {
+                CBORWriter.subscribe((Flow.Publisher<?>) obj, list::add);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return item(list.iterator());
+        } else if (obj instanceof Object[]) {
+            Object[] array = (Object[]) obj;
+            Packet pac = cmd(4, array.length);
+            for (Object v : array) {
+                pac.write(value(v));
+            }
+            return pac;
+        }
+        if (obj instanceof CBORRaw) {
+            CBORRaw raw = (CBORRaw) obj;
+            if (raw.isEmbedded()) {
+                Packet pac = tag(CBORTag.ENCODED_CBOR);
+                pac.write(string(2, raw.data(), ByteBuffer.wrap(raw.data())));
+                return pac;
+            }
+            // stringref の中では tag 256 で区切る
+            Packet pac = refs != null ? tag(CBORTag.STRINGREF_NAMESPACE) : new PacketA();
+            pac.write(raw.data());
+            return pac;
+        }
+        Packet pac = tags.encode(obj, this);
+        return pac != null ? pac : Rebind.valueOf(obj, this);
+    }
+
+    /**
+     * stringref の表に入れる長さか.
+     * 参照の方が短くなるものだけ入れる.
+     *
+     * @param index 次の番号
+     * @param len 符号化したバイト数
+     * @return 表に入れる
+     */
+    static boolean stringRefWorth(long index, long len) {
+        if (index < 24) {
+            return len >= 3;
+        } else if (index < 0x100) {
+            return len >= 4;
+        } else if (index < 0x10000) {
+            return len >= 5;
+        } else if (index < 0x100000000L) {
+            return len >= 7;
+        }
+        return len >= 11;
+    }
+
+    /**
+     * 文字列, バイト列の出力. stringref の表にあれば参照にする.
+     *
+     * @param major 2 または 3
+     * @param data 中身
+     * @param key 表のキー
+     * @return CBOR
+     */
+    private Packet string(int major, byte[] data, Object key) {
+        if (refs != null) {
+            Long index = refs.get(key);
+            if (index != null) {
+                Packet pac = tag(CBORTag.STRINGREF);
+                pac.write(cmd(0, index));
+                return pac;
+            }
+            long next = refs.size();
+            if (stringRefWorth(next, data.length)) {
+                refs.put(key, next);
+            }
+        }
+        Packet pac = cmd(major, data.length);
+        pac.write(data);
+        return pac;
+    }
+
     @Override
     public String contentType() {
         return "application/cbor";
@@ -107,72 +435,82 @@ public class CBORFormat implements ContentBind<Packet> {
         return major7(bool ? 0x15 : 0x14);
     }
 
-//    static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
-    static final BigInteger LONG_MAX = BigInteger.ONE.shiftLeft(1).pow(64);
-
     /**
-     * 整数 major 0 1、浮動小数点 major 7 拡張 2, 3 BigNum
+     * 整数 major 0 1、浮動小数点 major 7、拡張 2, 3 BigNum, 4 Decimal Fraction
      *
      * @param num 数値
      * @return
      */
     @Override
     public Packet numberFormat(Number num) {
-        if (num instanceof BigInteger) {
-            BigInteger bi = (BigInteger) num;
-            Packet pac;
-            int flag = (bi.signum() < 0) ? 1 : 0;
-            if (flag != 0) {
-                bi = bi.add(BigInteger.ONE).negate();
-            }
-            if (bi.compareTo(LONG_MAX) < 0) {
-                return cmd(flag, bi.longValue()); // 符号なしで収まる
-            }
-            pac = tag(2 + flag);
-            pac.write(arrayFormat(bi.toByteArray()));
+        if (num instanceof Long || num instanceof Integer || num instanceof Short || num instanceof Byte) {
+            return intFormat(num.longValue());
+        } else if (num instanceof Double) {
+            return doubleFormat(num.doubleValue());
+        } else if (num instanceof Float) {
+            return floatFormat(num.floatValue());
+        } else if (num instanceof BigInteger) {
+            return bigIntegerFormat((BigInteger) num);
+        } else if (num instanceof BigDecimal) {
+            // [指数, 仮数]
+            BigDecimal bd = (BigDecimal) num;
+            Packet pac = tag(CBORTag.DECIMAL_FRACTION);
+            pac.write(cmd(4, 2));
+            pac.write(intFormat(-(long) bd.scale()));
+            pac.write(bigIntegerFormat(bd.unscaledValue()));
+            return pac;
+        } else if (num instanceof Binary16) {
+            Packet pac = major7(25);
+            pac.dwrite(Bin.toByte(Binary16.binary16ToShortBits(((Binary16) num).binary16Value())));
             return pac;
         }
-        if (num instanceof Long || num instanceof Integer || num instanceof Short || num instanceof Byte) {
-            long l = num.longValue();
-            if (l >= 0) {
-                return cmd(0, l);
-            } else {
-                return cmd(1, -l - 1);
-            }
 
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    private Packet intFormat(long l) {
+        return l >= 0 ? cmd(0, l) : cmd(1, -1 - l);
+    }
+
+    /**
+     * 64bit に収まるものは major 0, 1.
+     * 収まらないものは tag 2, 3 で先頭の 0 は省く.
+     */
+    private Packet bigIntegerFormat(BigInteger bi) {
+        int flag = (bi.signum() < 0) ? 1 : 0;
+        if (flag != 0) {
+            bi = bi.not(); // -1 - n
         }
-        if (num instanceof Double) {
-            Double d = (Double) num;
-            if (d.equals(Double.valueOf(d.floatValue()))) {
-                num = ((Double) num).floatValue();
-            } else {
-                Packet pac = major7(27);
-                pac.dwrite(Bin.toByte(Double.doubleToRawLongBits((Double) num)));
-                return pac;
-            }
+        if (bi.bitLength() <= 64) {
+            return cmd(flag, bi.longValue()); // 符号なしで収まる
         }
-        if (num instanceof Float) {
-            Float f = (Float) num;
-            Binary16 b16 = Binary16.valueOf(Binary16.FloatToBinary16bits(f.floatValue()));
-            if (f.equals(b16.floatValue())) {
-                num = Binary16.valueOf(Binary16.FloatToBinary16bits(f));
-            } else {
-                Packet pac = major7(26);
-                pac.dwrite(Bin.toByte(Float.floatToRawIntBits((Float) num)));
-                return pac;
-            }
+        Packet pac = tag(CBORTag.POSITIVE_BIGNUM + flag);
+        pac.write(arrayFormat(CBORWriter.magnitude(bi)));
+        return pac;
+    }
+
+    /**
+     * 値が変わらなければ短くする. 箱にも Binary16 にも入れない.
+     */
+    private Packet doubleFormat(double d) {
+        float f = (float) d;
+        if (Double.doubleToLongBits(d) == Double.doubleToLongBits(f)) {
+            return floatFormat(f);
         }
-        if (num instanceof Binary16) {
+        Packet pac = major7(27);
+        pac.dwrite(Bin.toByte(Double.doubleToRawLongBits(d)));
+        return pac;
+    }
+
+    private Packet floatFormat(float f) {
+        if (CBORWriter.isHalf(f)) {
             Packet pac = major7(25);
-            if (((Binary16) num).binary16Value() == 0x8000) { // -0.0 は非対応?
-                num = Binary16.valueOf((short) 0.0);
-            }
-            // NaN を正規化する?
-            pac.dwrite(Bin.toByte(Binary16.binary16ToShortBits(((Binary16) num).binary16Value())));
+            pac.dwrite(Bin.toByte(Binary16.binary16ToShortBits(Binary16.FloatToBinary16bits(f))));
             return pac;
         }
-
-        throw new UnsupportedOperationException("Not supported yet.");
+        Packet pac = major7(26);
+        pac.dwrite(Bin.toByte(Float.floatToRawIntBits(f)));
+        return pac;
     }
 
     /**
@@ -183,10 +521,7 @@ public class CBORFormat implements ContentBind<Packet> {
      */
     @Override
     public Packet stringFormat(String str) {
-        byte[] data = str.getBytes(StandardCharsets.UTF_8);
-        Packet pac = cmd(3, data.length);
-        pac.write(data);
-        return pac;
+        return string(3, str.getBytes(StandardCharsets.UTF_8), str);
     }
 
     /**
@@ -197,17 +532,71 @@ public class CBORFormat implements ContentBind<Packet> {
      */
     @Override
     public Packet mapFormat(Map map) {
+        if (map instanceof CBORIntMap && ((CBORIntMap) map).intOnly()) {
+            return intMap((CBORIntMap) map);
+        } else if (deterministic) {
+            return sortedMap(map);
+        }
         Packet pac = new PacketA();
         int size = map.size();
         for (Object es : map.entrySet()) {
             Map.Entry e = (Map.Entry) es;
-            pac.write(Rebind.valueOf(e.getKey(), this));
-            pac.write(Rebind.valueOf(e.getValue(), this));
+            pac.write(value(e.getKey()));
+            pac.write(value(e.getValue()));
         }
         pac.backWrite(cmd(5, size));
         return pac;
     }
 
+    /**
+     * 整数キーの Map. キーは箱に入れない.
+     * 並びはもともと決定的な符号化の順.
+     *
+     * @param map 整数のキーだけの Map
+     * @return CBOR map
+     */
+    private Packet intMap(CBORIntMap map) {
+        int n = map.size();
+        int zero = map.zero();
+        Packet pac = cmd(5, n);
+        for (int i = 0; i < n; i++) {
+            int j = map.encodeIndex(i, zero);
+            pac.write(intFormat(map.keyAt(j)));
+            pac.write(value(map.valueAt(j)));
+        }
+        return pac;
+    }
+
+    /**
+     * 決定的な符号化の Map. キーを符号化したバイト列の順に並べる.
+     * キーは1回だけ符号化する.
+     *
+     * @param map Map
+     * @return CBOR map
+     */
+    private Packet sortedMap(Map<?, ?> map) {
+        int n = map.size();
+        byte[][] keys = new byte[n][];
+        Packet[] values = new Packet[n];
+        Integer[] order = new Integer[n];
+        int i = 0;
+        for (Map.Entry e : map.entrySet()) {
+            keys[i] = value(e.getKey()).toByteArray();
+            values[i] = value(e.getValue());
+            order[i] = i++;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
+        Packet pac = cmd(5, n);
+        for (i = 0; i < n; i++) {
+            if (i > 0 && Arrays.equals(keys[order[i - 1]], keys[order[i]])) {
+                throw new IllegalStateException("キーが重複");
+            }
+            pac.dwrite(keys[order[i]]);
+            pac.write(values[order[i]]);
+        }
+        return pac;
+    }
+
     /**
      * major 4 Collection CBOR array 変換.
      *
@@ -217,8 +606,16 @@ public class CBORFormat implements ContentBind<Packet> {
     @Override
     public Packet collectionFormat(Collection col) {
         int size = col.size();
+        if (refs != null || sharing != null) { // 表の番号は出現順
+            Packet pac = new PacketA();
+            for (Object v : col) {
+                pac.write(value(v));
+            }
+            pac.backWrite(cmd(4, size));
+            return pac;
+        }
         Packet pac = (Packet) col.parallelStream().map(v -> {
-            return (Packet) Rebind.valueOf(v, this);
+            return value(v);
         }).collect(PacketA::new,
                 (a, b) -> {
                     ((Packet) a).write((Packet) b);
@@ -231,29 +628,33 @@ public class CBORFormat implements ContentBind<Packet> {
     }
 
     /**
-     * エポックタイムからの秒数を使っておく. 拡張 0 date/time string 拡張 1 Epoch-based date/time
-     * (ToDo:とりあえず)ミリ秒は切り捨て.
+     * 拡張 1 Epoch-based date/time. 1秒未満があるときは浮動小数点.
      *
      * @param cal Java基準 ミリ秒
-     * @return CBOR number
+     * @return CBOR tag 1
      */
     @Override
     public Packet datetimeFormat(Calendar cal) {
-        long t = cal.getTimeInMillis();
-        int ms = cal.get(Calendar.MILLISECOND);
-        Packet pac;
-        if (ms == 0) { // ミリ秒なし
-            pac = tag(1);
-            pac.write(numberFormat(t / 1000));
-        } else {
-            pac = tag(0);
-            java.text.DateFormat df = java.text.DateFormat.getDateTimeInstance();
-            Date date = new Date();
-            date.setTime(cal.getTimeInMillis());
-            df.format(date);
-            pac.write(stringFormat(""));
-            throw new UnsupportedOperationException("まだ");
+        Packet pac = tag(CBORTag.EPOCH_BASED_DATE_TIME);
+        pac.write(value(CBORTime.epoch(cal)));
+        return pac;
+    }
+
+    /**
+     * 配列.
+     * 数値のプリミティブ配列は RFC 8746 Typed Arrays にまとめる.
+     *
+     * @param array 配列
+     * @return CBOR
+     */
+    @Override
+    public Packet arrayFormat(Object array) {
+        ByteBuffer bin = CBORTypedArray.encode(array);
+        if (bin == null) {
+            return ContentBind.super.arrayFormat(array);
         }
+        Packet pac = tag(CBORTypedArray.tag(array));
+        pac.write(string(2, bin.array(), bin));
         return pac;
     }
 
@@ -265,9 +666,7 @@ public class CBORFormat implements ContentBind<Packet> {
      */
     @Override
     public Packet byteArrayFormat(byte[] data) {
-        Packet pac = cmd(2, data.length);
-        pac.write(data);
-        return pac;
+        return string(2, data, ByteBuffer.wrap(data));
     }
 
     /**
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 整数キーの Map. COSE, CWT などのラベル用.
+ * キーは long[] に昇順, 値は Object[] に並べて持つ.
+ * 整数のキーはすべて Long として見える. 整数以外のキーは別の LinkedHashMap に入れ, 整数のキーの後に並ぶ.
+ * 復号では CBORDecoder.setIntKeyMap を設定し, キーがすべて整数のときにこれになる.
+ * 符号化は箱に入れずにキーを書き, 順は決定的な符号化と同じ (0以上の昇順, 負の降順).
+ * 整数以外のキーがあるときはふつうの Map と同じに符号化する.
+ */
+public class CBORIntMap extends AbstractMap<Object, Object> {
+
+    private static final long[] NO_KEYS = new long[0];
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private long[] keys = NO_KEYS;
+    private Object[] values = NO_VALUES;
+    private int size;
+    /**
+     * 整数以外のキー. なければ null
+     */
+    private Map<Object, Object> others;
+
+    public CBORIntMap() {
+    }
+
+    /**
+     *
+     * @param capacity 最初の大きさ
+     */
+    public CBORIntMap(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    @Override
+    public int size() {
+        return others == null ? size : size + others.size();
+    }
+
+    /**
+     * 整数のキーだけか.
+     */
+    boolean intOnly() {
+        return others == null || others.isEmpty();
+    }
+
+    private int index(long key) {
+        if (size == 0 || keys[size - 1] < key) { // 昇順に足すとき
+            return -size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    public boolean containsKey(long key) {
+        return index(key) >= 0;
+    }
+
+    public Object get(long key) {
+        int i = index(key);
+        return i >= 0 ? values[i] : null;
+    }
+
+    public Object put(long key, Object value) {
+        int i = index(key);
+        if (i >= 0) {
+            Object old = values[i];
+            values[i] = value;
+            return old;
+        }
+        i = -i - 1;
+        if (size == keys.length) {
+            int n = Math.max(8, size * 2);
+            keys = Arrays.copyOf(keys, n);
+            values = Arrays.copyOf(values, n);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(values, i, values, i + 1, size - i);
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        return null;
+    }
+
+    public Object remove(long key) {
+        int i = index(key);
+        if (i < 0) {
+            return null;
+        }
+        Object old = values[i];
+        removeAt(i);
+        return old;
+    }
+
+    private void removeAt(int i) {
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(values, i + 1, values, i, size - i - 1);
+        values[--size] = null;
+    }
+
+    /**
+     * 整数のキーの数.
+     *
+     * @return 数
+     */
+    public int intSize() {
+        return size;
+    }
+
+    /**
+     * 昇順で i 番目のキー.
+     *
+     * @param i 位置
+     * @return キー
+     */
+    public long keyAt(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return keys[i];
+    }
+
+    /**
+     * 昇順で i 番目の値.
+     *
+     * @param i 位置
+     * @return 値
+     */
+    public Object valueAt(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return values[i];
+    }
+
+    /**
+     * 最初の0以上のキーの位置.
+     */
+    int zero() {
+        int i = index(0);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * 符号化する順で i 番目の位置.
+     * 0以上のキーは major 0 で昇順, 負のキーは major 1 で絶対値の昇順.
+     *
+     * @param i 符号化の順
+     * @param zero zero() の値
+     * @return 昇順の位置
+     */
+    int encodeIndex(int i, int zero) {
+        return i < size - zero ? zero + i : size - 1 - i;
+    }
+
+    private static boolean isInt(Object key) {
+        return key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (isInt(key)) {
+            return containsKey(((Number) key).longValue());
+        }
+        return others != null && others.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (isInt(key)) {
+            return get(((Number) key).longValue());
+        }
+        return others == null ? null : others.get(key);
+    }
+
+    /**
+     * Long, Integer, Short, Byte は整数のキー. ほかは別の Map に入れる.
+     *
+     * @param key キー
+     * @param value 値
+     * @return 前の値
+     */
+    @Override
+    public Object put(Object key, Object value) {
+        if (isInt(key)) {
+            return put(((Number) key).longValue(), value);
+        }
+        if (others == null) {
+            others = new LinkedHashMap<>();
+        }
+        return others.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (isInt(key)) {
+            return remove(((Number) key).longValue());
+        }
+        return others == null ? null : others.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        others = null;
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<Object, Object>>() {
+            @Override
+            public Iterator<Map.Entry<Object, Object>> iterator() {
+                return new Iterator<Map.Entry<Object, Object>>() {
+                    int next;
+                    int last = -1;
+                    /**
+                     * 整数のキーの後
+                     */
+                    Iterator<Map.Entry<Object, Object>> rest;
+                    boolean inRest;
+
+                    @Override
+                    public boolean hasNext() {
+                        if (next < size) {
+                            return true;
+                        }
+                        if (rest == null && others != null) {
+                            rest = others.entrySet().iterator();
+                        }
+                        return rest != null && rest.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<Object, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        } else if (next >= size) {
+                            inRest = true;
+                            return rest.next();
+                        }
+                        int i = last = next++;
+                        return new AbstractMap.SimpleEntry<Object, Object>(keys[i], values[i]) {
+                            @Override
+                            public Object setValue(Object value) {
+                                values[i] = value;
+                                return super.setValue(value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (inRest) {
+                            rest.remove();
+                            return;
+                        } else if (last < 0) {
+                            throw new IllegalStateException();
+                        }
+                        removeAt(last);
+                        next = last;
+                        last = -1;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CBORIntMap.this.size();
+            }
+        };
+    }
+}
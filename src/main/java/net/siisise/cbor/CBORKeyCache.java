@@ -0,0 +1,138 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Map のキーなど短い text string の共有.
+ * UTF-8 のバイト列から同じ String を返す.
+ * 大きさ固定のハッシュ表で, 衝突したら上書きする.
+ * 要素は不変なのでロックなしで複数スレッドから使える.
+ */
+public class CBORKeyCache {
+
+    private static final class Entry {
+
+        final int hash;
+        final byte[] utf8;
+        final String str;
+
+        Entry(int hash, byte[] utf8, String str) {
+            this.hash = hash;
+            this.utf8 = utf8;
+            this.str = str;
+        }
+    }
+
+    private final Entry[] table;
+    private final int mask;
+    private final int maxLength;
+
+    public CBORKeyCache() {
+        this(1024, 64);
+    }
+
+    /**
+     *
+     * @param size 表の大きさ. 2のべき乗に切り上げる
+     * @param maxLength 共有する最大バイト数
+     */
+    public CBORKeyCache(int size, int maxLength) {
+        int n = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+        table = new Entry[n];
+        mask = n - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * 共有する最大バイト数.
+     *
+     * @return バイト数
+     */
+    public int maxLength() {
+        return maxLength;
+    }
+
+    /**
+     * UTF-8 から String.
+     *
+     * @param utf8 UTF-8
+     * @param offset 位置
+     * @param length 長さ
+     * @return 共有の String
+     */
+    public String get(byte[] utf8, int offset, int length) {
+        if (length > maxLength) {
+            return new String(utf8, offset, length, StandardCharsets.UTF_8);
+        }
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + utf8[offset + i];
+        }
+        int idx = (h ^ (h >>> 16)) & mask;
+        Entry e = table[idx];
+        if (e != null && e.hash == h && e.utf8.length == length) {
+            int i = 0;
+            while (i < length && e.utf8[i] == utf8[offset + i]) {
+                i++;
+            }
+            if (i == length) {
+                return e.str;
+            }
+        }
+        byte[] b = new byte[length];
+        System.arraycopy(utf8, offset, b, 0, length);
+        e = new Entry(h, b, new String(b, StandardCharsets.UTF_8));
+        table[idx] = e;
+        return e.str;
+    }
+
+    /**
+     * UTF-8 から String.
+     *
+     * @param utf8 UTF-8. position から limit まで. position は変えない
+     * @return 共有の String
+     */
+    public String get(ByteBuffer utf8) {
+        int length = utf8.remaining();
+        if (length > maxLength) {
+            return StandardCharsets.UTF_8.decode(utf8.duplicate()).toString();
+        }
+        int p = utf8.position();
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + utf8.get(p + i);
+        }
+        int idx = (h ^ (h >>> 16)) & mask;
+        Entry e = table[idx];
+        if (e != null && e.hash == h && e.utf8.length == length) {
+            int i = 0;
+            while (i < length && e.utf8[i] == utf8.get(p + i)) {
+                i++;
+            }
+            if (i == length) {
+                return e.str;
+            }
+        }
+        byte[] b = new byte[length];
+        utf8.duplicate().get(b);
+        e = new Entry(h, b, new String(b, StandardCharsets.UTF_8));
+        table[idx] = e;
+        return e.str;
+    }
+}
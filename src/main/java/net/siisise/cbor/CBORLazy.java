@@ -0,0 +1,276 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 遅延展開.
+ * 配列, Map は元のバイト列を参照する List / Map として返し,
+ * 最初に触れたときに要素の位置だけを調べる.
+ * 要素は get したときに展開してキャッシュする.
+ * 読み込み専用. スレッドセーフではない.
+ */
+public class CBORLazy {
+
+    /**
+     * 配列, Map 以外の要素用. byte string は byte[], text string は String
+     */
+    private static final CBORBufferParser LEAF = new CBORBufferParser(false, false);
+
+    /**
+     * 未展開
+     */
+    private static final Object NONE = new Object();
+
+    /**
+     * 先頭の1要素.
+     *
+     * @param src CBOR
+     * @return 配列は List, Map は Map, ほかは CBOR.parse と同じ
+     */
+    public static Object parse(byte[] src) {
+        return parse(ByteBuffer.wrap(src));
+    }
+
+    /**
+     * position の1要素.
+     * src の position は変えない. 展開が終わるまで中身を変更しないこと.
+     *
+     * @param src CBOR
+     * @return 配列は List, Map は Map, ほかは CBOR.parse と同じ
+     */
+    public static Object parse(ByteBuffer src) {
+        return value(src.duplicate(), src.position());
+    }
+
+    static Object value(ByteBuffer src, int pos) {
+        switch ((src.get(pos) & 0xff) >>> 5) {
+            case 4:
+                return new LazyList(src, pos);
+            case 5:
+                return new LazyMap(src, pos);
+            default:
+                ByteBuffer d = src.duplicate();
+                d.position(pos);
+                return LEAF.parse(d);
+        }
+    }
+
+    /**
+     * ヘッダを読んで要素数を返す.
+     *
+     * @param d ヘッダの位置. 中身の先頭まで進む
+     * @return 要素数 -1 は不定長
+     */
+    private static int header(ByteBuffer d) {
+        int code = d.get() & 0xff;
+        long len = CBOR.checkLen(code, CBOR.parseLen(d, code));
+        if (len > Integer.MAX_VALUE - 8 || len < -1) {
+            throw new UnsupportedOperationException("大きすぎ");
+        }
+        return (int) len;
+    }
+
+    /**
+     * 要素の位置を調べる.
+     *
+     * @param d 中身の先頭
+     * @param count 要素数. -1 は不定長
+     * @return 各要素の位置
+     */
+    private static int[] offsets(ByteBuffer d, int count) {
+        int[] offsets = new int[count < 0 ? 16 : count];
+        int n = 0;
+        while (count < 0 ? d.get(d.position()) != (byte) 0xff : n < count) {
+            if (n == offsets.length) {
+                offsets = Arrays.copyOf(offsets, n * 2);
+            }
+            offsets[n++] = d.position();
+            CBOR.skipItem(d);
+        }
+        return n == offsets.length ? offsets : Arrays.copyOf(offsets, n);
+    }
+
+    /**
+     * major 4 の遅延展開
+     */
+    static class LazyList extends AbstractList<Object> {
+
+        private final ByteBuffer src;
+        private final int first;
+        private int size;
+        private int[] offsets;
+        private Object[] values;
+
+        LazyList(ByteBuffer src, int pos) {
+            this.src = src;
+            ByteBuffer d = src.duplicate();
+            d.position(pos);
+            size = header(d);
+            first = d.position();
+        }
+
+        private void index() {
+            if (offsets == null) {
+                ByteBuffer d = src.duplicate();
+                d.position(first);
+                offsets = offsets(d, size);
+                size = offsets.length;
+                values = new Object[size];
+                Arrays.fill(values, NONE);
+            }
+        }
+
+        @Override
+        public Object get(int index) {
+            index();
+            Object v = values[index];
+            if (v == NONE) {
+                v = value(src, offsets[index]);
+                values[index] = v;
+            }
+            return v;
+        }
+
+        @Override
+        public int size() {
+            if (size < 0) {
+                index();
+            }
+            return size;
+        }
+    }
+
+    /**
+     * major 5 の遅延展開.
+     * キーは位置を調べるときに展開する.
+     */
+    static class LazyMap extends AbstractMap<Object, Object> {
+
+        private final ByteBuffer src;
+        private final int first;
+        private int size;
+        private Object[] keys;
+        private int[] offsets;
+        private Object[] values;
+        private Map<Object, Integer> index;
+
+        LazyMap(ByteBuffer src, int pos) {
+            this.src = src;
+            ByteBuffer d = src.duplicate();
+            d.position(pos);
+            size = header(d);
+            if (size > (Integer.MAX_VALUE - 8) / 2) {
+                throw new UnsupportedOperationException("大きすぎ");
+            }
+            first = d.position();
+        }
+
+        private void index() {
+            if (offsets == null) {
+                ByteBuffer d = src.duplicate();
+                d.position(first);
+                int[] kv = offsets(d, size < 0 ? -1 : size * 2);
+                if (kv.length % 2 != 0) {
+                    throw new IllegalStateException("Mapの値がない");
+                }
+                size = kv.length / 2;
+                keys = new Object[size];
+                offsets = new int[size];
+                values = new Object[size];
+                index = new HashMap<>(size * 4 / 3 + 1);
+                for (int i = 0; i < size; i++) {
+                    keys[i] = CBORLazy.value(src, kv[i * 2]);
+                    offsets[i] = kv[i * 2 + 1];
+                    values[i] = NONE;
+                    index.put(keys[i], i);
+                }
+            }
+        }
+
+        private Object value(int i) {
+            Object v = values[i];
+            if (v == NONE) {
+                v = CBORLazy.value(src, offsets[i]);
+                values[i] = v;
+            }
+            return v;
+        }
+
+        @Override
+        public Object get(Object key) {
+            index();
+            Integer i = index.get(key);
+            return i == null ? null : value(i);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            index();
+            return index.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            if (size < 0) {
+                index();
+            }
+            return size;
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            index();
+            return new AbstractSet<Map.Entry<Object, Object>>() {
+                @Override
+                public Iterator<Map.Entry<Object, Object>> iterator() {
+                    return new Iterator<Map.Entry<Object, Object>>() {
+                        int i;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < size;
+                        }
+
+                        @Override
+                        public Map.Entry<Object, Object> next() {
+                            if (i >= size) {
+                                throw new NoSuchElementException();
+                            }
+                            int n = i++;
+                            return new AbstractMap.SimpleImmutableEntry<>(keys[n], value(n));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 変わらない値の符号化を覚えておく.
+ * 件数と合計バイト数に上限があり, 古く使われていないものから捨てる.
+ * 同一のオブジェクトか equals で同じ値かで引く.
+ * 値は変更しないこと.
+ */
+public class CBORMemo {
+
+    /**
+     * 同一性で比べるキー
+     */
+    private static final class Identity {
+
+        final Object obj;
+
+        Identity(Object obj) {
+            this.obj = obj;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Identity && ((Identity) o).obj == obj;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(obj);
+        }
+    }
+
+    private final CBORFormat format;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final boolean identity;
+    private long bytes;
+
+    private final LinkedHashMap<Object, CBORRaw> map = new LinkedHashMap<Object, CBORRaw>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, CBORRaw> eldest) {
+            if (size() > maxEntries) {
+                bytes -= eldest.getValue().length();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     *
+     * @param format 符号化の設定
+     * @param maxEntries 件数の上限
+     * @param maxBytes 合計バイト数の上限
+     * @param identity true: 同一のオブジェクトで引く false: equals で引く
+     */
+    public CBORMemo(CBORFormat format, int maxEntries, long maxBytes, boolean identity) {
+        this.format = format;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.identity = identity;
+    }
+
+    /**
+     * 符号化済みのもの. なければ符号化して覚える.
+     * 返したものは CBORFormat, CBORWriter でそのまま埋め込める.
+     *
+     * @param obj 値
+     * @return 符号化済み
+     */
+    public CBORRaw get(Object obj) {
+        Object key = identity ? new Identity(obj) : obj;
+        synchronized (map) {
+            CBORRaw raw = map.get(key);
+            if (raw != null) {
+                return raw;
+            }
+        }
+        CBORRaw raw = CBORRaw.encode(obj, format);
+        if (raw.length() <= maxBytes) {
+            synchronized (map) {
+                CBORRaw old = map.put(key, raw);
+                bytes += raw.length();
+                if (old != null) {
+                    bytes -= old.length();
+                }
+                // 最後に足したものは残る
+                while (bytes > maxBytes && map.size() > 1) {
+                    Object eldest = map.keySet().iterator().next();
+                    bytes -= map.remove(eldest).length();
+                }
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * 覚えている件数.
+     *
+     * @return 件数
+     */
+    public int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (map) {
+            map.clear();
+            bytes = 0;
+        }
+    }
+}
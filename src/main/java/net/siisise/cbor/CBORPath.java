@@ -0,0 +1,230 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CBOR のバイト列に対するパス検索.
+ * 一致しない部分木は長さで読み飛ばし, 選ばれた要素だけ展開する.
+ * キーは最短形式の text string として符号化したバイト列で比較する.
+ * JSONPath の一部.
+ * <pre>
+ * $.meta.id
+ * $.items[*].price
+ * $['a b'][0]
+ * $.*
+ * </pre>
+ * compile したものはスレッドセーフ.
+ */
+public class CBORPath {
+
+    private static final int KEY = 0;
+    private static final int INDEX = 1;
+    private static final int WILDCARD = 2;
+
+    /**
+     * 解析中の * の印
+     */
+    private static final Object ANY = new Object();
+
+    private static final CBORBufferParser LEAF = new CBORBufferParser(false, false);
+
+    private final String path;
+    private final int[] types;
+    /**
+     * CBOR text string に変換済みのキー
+     */
+    private final byte[][] keys;
+    private final long[] indexes;
+
+    private CBORPath(String path, List<Object> segments) {
+        this.path = path;
+        int n = segments.size();
+        types = new int[n];
+        keys = new byte[n][];
+        indexes = new long[n];
+        CBORFormat format = new CBORFormat();
+        for (int i = 0; i < n; i++) {
+            Object s = segments.get(i);
+            if (s instanceof String) {
+                types[i] = KEY;
+                keys[i] = format.stringFormat((String) s).toByteArray();
+            } else if (s instanceof Long) {
+                types[i] = INDEX;
+                indexes[i] = (Long) s;
+            } else {
+                types[i] = WILDCARD;
+            }
+        }
+    }
+
+    /**
+     * パスの解析.
+     *
+     * @param path $ から始まるパス
+     * @return 検索用
+     */
+    public static CBORPath compile(String path) {
+        if (!path.startsWith("$")) {
+            throw new IllegalArgumentException(path);
+        }
+        List<Object> segments = new ArrayList<>();
+        int i = 1;
+        int len = path.length();
+        while (i < len) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                int s = ++i;
+                while (i < len && path.charAt(i) != '.' && path.charAt(i) != '[') {
+                    i++;
+                }
+                String name = path.substring(s, i);
+                if (name.isEmpty()) {
+                    throw new IllegalArgumentException(path);
+                }
+                segments.add(name.equals("*") ? ANY : name);
+            } else if (c == '[') {
+                int e = path.indexOf(']', i);
+                if (e < 0) {
+                    throw new IllegalArgumentException(path);
+                }
+                char q = path.charAt(i + 1);
+                if (q == '\'' || q == '"') {
+                    e = path.indexOf(q, i + 2);
+                    if (e < 0 || e + 1 >= len || path.charAt(e + 1) != ']') {
+                        throw new IllegalArgumentException(path);
+                    }
+                    segments.add(path.substring(i + 2, e));
+                    e++;
+                } else {
+                    String v = path.substring(i + 1, e).trim();
+                    if (v.equals("*")) {
+                        segments.add(ANY);
+                    } else {
+                        try {
+                            long n = Long.parseLong(v);
+                            if (n < 0) {
+                                throw new IllegalArgumentException(path);
+                            }
+                            segments.add(n);
+                        } catch (NumberFormatException ex) {
+                            throw new IllegalArgumentException(path, ex);
+                        }
+                    }
+                }
+                i = e + 1;
+            } else {
+                throw new IllegalArgumentException(path);
+            }
+        }
+        return new CBORPath(path, segments);
+    }
+
+    /**
+     * 一致した要素.
+     *
+     * @param src CBOR
+     * @return 展開した値の一覧
+     */
+    public List<Object> select(byte[] src) {
+        return select(ByteBuffer.wrap(src));
+    }
+
+    /**
+     * 一致した要素.
+     * src の position は変えない.
+     *
+     * @param src CBOR
+     * @return 展開した値の一覧
+     */
+    public List<Object> select(ByteBuffer src) {
+        List<Object> out = new ArrayList<>();
+        eval(src.duplicate(), 0, out);
+        return out;
+    }
+
+    /**
+     * 最初に一致した要素.
+     *
+     * @param src CBOR
+     * @return 値 または null
+     */
+    public Object first(byte[] src) {
+        List<Object> list = select(src);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    private void eval(ByteBuffer in, int seg, List<Object> out) {
+        if (seg == types.length) {
+            out.add(LEAF.parse(in));
+            return;
+        }
+        int code = in.get() & 0xff;
+        long len = CBOR.checkLen(code, CBOR.parseLen(in, code));
+        int major = code >>> 5;
+        if (major == 6) { // タグは飛ばして中を見る
+            eval(in, seg, out);
+            return;
+        }
+        if ((major != 4 && major != 5) || (major == 4 && types[seg] == KEY) || (major == 5 && types[seg] == INDEX)) {
+            // 型が合わないものは中を見ない
+            return;
+        }
+        long count = len;
+        for (long i = 0; len < 0 ? in.get(in.position()) != (byte) 0xff : i < count; i++) {
+            int start = in.position();
+            if (major == 5) {
+                CBOR.skipItem(in);
+                if (types[seg] == WILDCARD || (types[seg] == KEY && matchKey(in, start, keys[seg]))) {
+                    eval(in.duplicate(), seg + 1, out);
+                    if (types[seg] == KEY) {
+                        return;
+                    }
+                }
+            } else if (types[seg] == WILDCARD || (types[seg] == INDEX && indexes[seg] == i)) {
+                eval(in.duplicate(), seg + 1, out);
+                if (types[seg] == INDEX) {
+                    return;
+                }
+            }
+            CBOR.skipItem(in);
+        }
+    }
+
+    /**
+     * 直前に読み飛ばしたキーがバイト列として一致するか.
+     */
+    private static boolean matchKey(ByteBuffer in, int start, byte[] key) {
+        int end = in.position();
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (in.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
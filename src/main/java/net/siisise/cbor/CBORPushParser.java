@@ -0,0 +1,231 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import net.siisise.io.Packet;
+import net.siisise.io.PacketA;
+
+/**
+ * RFC 8949 CBOR. Push型 逐次解析.
+ * 届いた分の ByteBuffer を渡すと途中の状態を保持して続きから解析する.
+ * non-blocking の SocketChannel などから読んだ断片をそのまま渡せる.
+ * 1接続に1つ用意する. スレッドセーフではない.
+ */
+public class CBORPushParser {
+
+    /**
+     * 先頭1バイト待ち
+     */
+    private static final int HEAD = 0;
+    /**
+     * 引数部分待ち
+     */
+    private static final int ARG = 1;
+    /**
+     * 文字列, バイト列の中身待ち
+     */
+    private static final int PAYLOAD = 2;
+
+    /**
+     * 最初に確保する文字列の上限. 長さは届いた分だけ伸ばす.
+     */
+    private static final int INITIAL_PAYLOAD = 4096;
+
+    private int state = HEAD;
+    private int code;
+    private int argNeed;
+    private long arg;
+
+    private byte[] payload;
+    private int payloadLen;
+    private long payloadNeed;
+
+    /**
+     * 不定長文字列の major. -1 は不定長文字列の外
+     */
+    private int chunkMajor = -1;
+    private Packet chunks;
+
+    private final CBORBuilder builder = new CBORBuilder();
+
+    /**
+     * 解析途中の要素があるか.
+     *
+     * @return 途中ならtrue
+     */
+    public boolean isPartial() {
+        return state != HEAD || chunkMajor >= 0 || builder.isNested();
+    }
+
+    /**
+     * 断片を解析する.
+     * src の残りはすべて読み込み, 完成したトップレベルの要素を out に渡す.
+     *
+     * @param src 届いたデータ
+     * @param out 完成した要素の受け取り先
+     * @return 完成した要素の数
+     */
+    public int feed(ByteBuffer src, Consumer<Object> out) {
+        int count = 0;
+        while (src.hasRemaining()) {
+            switch (state) {
+                case HEAD:
+                    code = src.get() & 0xff;
+                    int ai = code & 0x1f;
+                    if (ai < 24 || ai == 31) {
+                        arg = ai == 31 ? -1 : ai;
+                        if (header()) {
+                            out.accept(builder.result());
+                            count++;
+                        }
+                    } else if (ai < 28) {
+                        argNeed = 1 << (ai - 24);
+                        arg = 0;
+                        state = ARG;
+                    } else {
+                        throw new UnsupportedOperationException("予約コード");
+                    }
+                    break;
+                case ARG:
+                    while (argNeed > 0 && src.hasRemaining()) {
+                        arg = (arg << 8) | (src.get() & 0xff);
+                        argNeed--;
+                    }
+                    if (argNeed == 0) {
+                        state = HEAD;
+                        if (header()) {
+                            out.accept(builder.result());
+                            count++;
+                        }
+                    }
+                    break;
+                default: // PAYLOAD
+                    int s = (int) Math.min(src.remaining(), payloadNeed);
+                    if (payloadLen + s > payload.length) {
+                        payload = Arrays.copyOf(payload, (int) Math.min(Math.max(payload.length * 2L, payloadLen + s), payloadLen + payloadNeed));
+                    }
+                    src.get(payload, payloadLen, s);
+                    payloadLen += s;
+                    payloadNeed -= s;
+                    if (payloadNeed == 0) {
+                        state = HEAD;
+                        byte[] data = payload.length == payloadLen ? payload : Arrays.copyOf(payload, payloadLen);
+                        payload = null;
+                        if (string(data)) {
+                            out.accept(builder.result());
+                            count++;
+                        }
+                    }
+                    break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 断片を解析する.
+     *
+     * @param src 届いたデータ
+     * @return 完成したトップレベルの要素
+     */
+    public List<Object> feed(ByteBuffer src) {
+        List<Object> list = new ArrayList<>();
+        feed(src, list::add);
+        return list;
+    }
+
+    /**
+     * ヘッダ解析後の処理.
+     *
+     * @return トップレベルの要素が完成した
+     */
+    private boolean header() {
+        arg = CBOR.checkLen(code, arg);
+        int major = code >>> 5;
+        if (chunkMajor >= 0) {
+            if (code == 0xff) {
+                byte[] data = chunks.toByteArray();
+                int m = chunkMajor;
+                chunks = null;
+                chunkMajor = -1;
+                return value(m, data, -1);
+            } else if (major != chunkMajor || arg < 0) {
+                throw new IllegalStateException("不定長の分割が不正");
+            }
+        }
+        switch (major) {
+            case 0:
+                return builder.value(CBOR.parseNumber(arg));
+            case 1:
+                return builder.value(CBOR.parseUnSigned(arg));
+            case 2:
+            case 3:
+                if (arg == -1) {
+                    chunkMajor = major;
+                    chunks = new PacketA();
+                    return false;
+                } else if (arg == 0) {
+                    return string(new byte[0]);
+                } else if (arg < 0 || arg > Integer.MAX_VALUE - 8) {
+                    throw new UnsupportedOperationException("大きすぎ");
+                }
+                payload = new byte[(int) Math.min(arg, INITIAL_PAYLOAD)];
+                payloadLen = 0;
+                payloadNeed = arg;
+                state = PAYLOAD;
+                return false;
+            case 4:
+                return builder.startArray(arg);
+            case 5:
+                return builder.startMap(arg);
+            case 6:
+                builder.tag(arg);
+                return false;
+            default:
+                if (code == 0xff) {
+                    return builder.end();
+                }
+                return builder.other(code & 0x1f, arg);
+        }
+    }
+
+    /**
+     * 定長の文字列, バイト列.
+     *
+     * @param data 中身
+     * @return トップレベルの要素が完成した
+     */
+    private boolean string(byte[] data) {
+        if (chunkMajor >= 0) {
+            chunks.write(data);
+            return false;
+        }
+        return value(code >>> 5, data, data.length);
+    }
+
+    private boolean value(int major, byte[] data, long len) {
+        if (major == 3) {
+            return builder.string(new String(data, StandardCharsets.UTF_8), len);
+        }
+        return builder.string(data, len);
+    }
+}
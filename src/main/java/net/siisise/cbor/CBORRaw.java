@@ -0,0 +1,129 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.util.Arrays;
+
+/**
+ * 符号化済みの CBOR 1要素.
+ * CBORFormat, CBORWriter はそのまま埋め込む.
+ * embedded のときは tag 24 (Encoded CBOR data item) の byte string にする.
+ * 展開は value を呼んだときに行う.
+ * 不変.
+ */
+public final class CBORRaw {
+
+    private final byte[] data;
+    private final boolean embedded;
+    private volatile Object value;
+    private volatile boolean decoded;
+
+    CBORRaw(byte[] data, boolean embedded) {
+        this.data = data;
+        this.embedded = embedded;
+    }
+
+    /**
+     * 符号化済みのものから.
+     *
+     * @param cbor CBOR 1要素. 写して持つ
+     * @return 埋め込み用
+     * @throws IllegalArgumentException well-formed ではない
+     */
+    public static CBORRaw of(byte[] cbor) {
+        if (!CBOR.validate(cbor)) {
+            throw new IllegalArgumentException("well-formed ではない");
+        }
+        return new CBORRaw(cbor.clone(), false);
+    }
+
+    /**
+     * 値を符号化しておく.
+     *
+     * @param obj 値
+     * @param format 符号化の設定
+     * @return 埋め込み用
+     */
+    public static CBORRaw encode(Object obj, CBORFormat format) {
+        return new CBORRaw(format.toByteArray(obj), false);
+    }
+
+    /**
+     * tag 24 で包むもの.
+     *
+     * @return 中身が同じで tag 24 付き
+     */
+    public CBORRaw embedded() {
+        return embedded ? this : new CBORRaw(data, true);
+    }
+
+    /**
+     * tag 24 で包むか.
+     *
+     * @return tag 24 付き
+     */
+    public boolean isEmbedded() {
+        return embedded;
+    }
+
+    /**
+     * 符号化済みの長さ. tag 24 は含まない.
+     *
+     * @return バイト数
+     */
+    public int length() {
+        return data.length;
+    }
+
+    /**
+     * 符号化済みのバイト列.
+     *
+     * @return 写し
+     */
+    public byte[] toByteArray() {
+        return data.clone();
+    }
+
+    /**
+     * 写さない中身.
+     */
+    byte[] data() {
+        return data;
+    }
+
+    /**
+     * 展開した値. 初回に展開して保持する.
+     *
+     * @return 値
+     */
+    public Object value() {
+        if (!decoded) {
+            value = CBOR.parse(data);
+            decoded = true;
+        }
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CBORRaw && ((CBORRaw) o).embedded == embedded && Arrays.equals(((CBORRaw) o).data, data);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(data) ^ (embedded ? 24 : 0);
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import net.siisise.block.ReadableBlock;
+import net.siisise.io.Input;
+import net.siisise.lang.Binary16;
+
+/**
+ * RFC 8949 CBOR. Pull型 逐次読み.
+ * 木を作らずにイベント単位で読み進める.
+ * 配列, Mapの終わりは定長, 不定長どちらも BREAK として返す.
+ */
+public class CBORReader {
+
+    /**
+     * 読み取りイベント
+     */
+    public enum Event {
+        /** major 0, 1 */
+        INT,
+        /** major 2 */
+        BYTES,
+        /** major 3 */
+        TEXT,
+        /** major 4 */
+        START_ARRAY,
+        /** major 5 */
+        START_MAP,
+        /** major 6 タグのみ. 値は次のイベント */
+        TAG,
+        /** major 7 25, 26, 27 */
+        FLOAT,
+        FALSE,
+        TRUE,
+        NULL,
+        UNDEFINED,
+        /** その他 simple value */
+        SIMPLE,
+        /** 配列, Mapの終わり */
+        BREAK,
+        /** 入力の終わり */
+        EOF
+    }
+
+    private final Input in;
+
+    /**
+     * 入れ子の残り数. -1 は不定長
+     */
+    private long[] remain = new long[16];
+    private int depth;
+
+    private Event event;
+    private int code;
+    private long len;
+    /**
+     * BYTES, TEXT の中身を読んでいない
+     */
+    private boolean pending;
+
+    /**
+     * 読み飛ばし, 短い文字列用の作業領域
+     */
+    private byte[] skipBuffer;
+
+    /**
+     * 最初に確保する文字列の大きさ. 長さは届いた分だけ伸ばす
+     */
+    private static final int INITIAL_BUFFER = 8192;
+
+    private int maxDepth = Integer.MAX_VALUE;
+    private long maxStringLength = Integer.MAX_VALUE - 8;
+
+    public CBORReader(Input in) {
+        this.in = in;
+    }
+
+    public CBORReader(byte[] src) {
+        this(ReadableBlock.wrap(src));
+    }
+
+    /**
+     * 入れ子の上限.
+     *
+     * @param maxDepth 配列, Map の深さ
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * BYTES, TEXT の長さの上限. 不定長はつなげた長さ.
+     *
+     * @param maxStringLength バイト数
+     */
+    public void setMaxStringLength(int maxStringLength) {
+        this.maxStringLength = Math.min(maxStringLength, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * 次のイベントへ進む.
+     * 読んでいない BYTES, TEXT の中身は読み飛ばす.
+     *
+     * @return イベント
+     */
+    public Event next() {
+        if (pending) {
+            skipString();
+        }
+        if (depth > 0 && remain[depth - 1] == 0) {
+            depth--;
+            len = 0;
+            return event = Event.BREAK;
+        }
+        code = in.read();
+        if (code < 0) {
+            if (depth > 0) {
+                throw new IllegalStateException("途中で終わった");
+            }
+            return event = Event.EOF;
+        }
+        if (code == 0xff) {
+            if (depth == 0 || remain[depth - 1] != -1) {
+                throw new IllegalStateException("BREAK");
+            }
+            depth--;
+            len = -1;
+            return event = Event.BREAK;
+        }
+        len = CBOR.checkLen(code, CBOR.parseLen(in, code));
+        int major = code >>> 5;
+        if (major != 6 && depth > 0 && remain[depth - 1] > 0) {
+            remain[depth - 1]--;
+        }
+        switch (major) {
+            case 0:
+            case 1:
+                return event = Event.INT;
+            case 2:
+                pending = true;
+                return event = Event.BYTES;
+            case 3:
+                pending = true;
+                return event = Event.TEXT;
+            case 4:
+                push(len);
+                return event = Event.START_ARRAY;
+            case 5:
+                push(len < 0 ? -1 : len * 2);
+                return event = Event.START_MAP;
+            case 6:
+                return event = Event.TAG;
+            default:
+                return event = major7(code & 0x1f);
+        }
+    }
+
+    private Event major7(int ai) {
+        switch (ai) {
+            case 20:
+                return Event.FALSE;
+            case 21:
+                return Event.TRUE;
+            case 22:
+                return Event.NULL;
+            case 23:
+                return Event.UNDEFINED;
+            case 25:
+            case 26:
+            case 27:
+                return Event.FLOAT;
+            default:
+                return Event.SIMPLE;
+        }
+    }
+
+    private void push(long count) {
+        if (depth >= maxDepth) {
+            throw new IllegalStateException("入れ子が上限を超えた");
+        }
+        if (depth == remain.length) {
+            remain = Arrays.copyOf(remain, depth * 2);
+        }
+        remain[depth++] = count;
+    }
+
+    /**
+     * 現在のイベント
+     *
+     * @return イベント
+     */
+    public Event event() {
+        return event;
+    }
+
+    /**
+     * 入れ子の深さ.
+     *
+     * @return 0 がトップレベル
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * 引数部分.
+     * 整数の絶対値-1, 長さ, 要素数, タグ番号など. 不定長は -1
+     * BREAK は不定長の終わりなら -1, 定長の終わりなら 0
+     *
+     * @return 符号なし64bitとして扱う値
+     */
+    public long length() {
+        return len;
+    }
+
+    /**
+     * タグ番号
+     *
+     * @return 符号なし64bit
+     */
+    public long tag() {
+        return len;
+    }
+
+    /**
+     * 整数値.
+     *
+     * @return INT の値
+     * @throws ArithmeticException long に収まらない
+     */
+    public long longValue() {
+        if (event == Event.INT) {
+            if (len < 0) {
+                throw new ArithmeticException("64bit");
+            }
+            return (code >>> 5) == 0 ? len : -len - 1;
+        } else if (event == Event.FLOAT) {
+            return (long) doubleValue();
+        }
+        throw new IllegalStateException(String.valueOf(event));
+    }
+
+    /**
+     * 数値. CBOR.parse と同じ型で返す.
+     *
+     * @return Long, BigInteger, Float, Double
+     */
+    public Number numberValue() {
+        if (event == Event.INT) {
+            if (len < 0) {
+                BigInteger b = BigInteger.valueOf(len).add(BigInteger.ONE.shiftLeft(64));
+                return (code >>> 5) == 0 ? b : b.negate().subtract(BigInteger.ONE);
+            }
+            return longValue();
+        } else if (event == Event.FLOAT) {
+            switch (code & 0x1f) {
+                case 25:
+                    return Binary16.binary16BitsToFloat((short) len);
+                case 26:
+                    return Float.intBitsToFloat((int) len);
+                default:
+                    return Double.longBitsToDouble(len);
+            }
+        }
+        throw new IllegalStateException(String.valueOf(event));
+    }
+
+    /**
+     * 浮動小数点値. 整数も変換する.
+     *
+     * @return 値
+     */
+    public double doubleValue() {
+        if (event == Event.INT && len >= 0) {
+            return (double) longValue();
+        }
+        return numberValue().doubleValue();
+    }
+
+    /**
+     * 先頭バイトの下位5bit.
+     *
+     * @return additional information
+     */
+    int additional() {
+        return code & 0x1f;
+    }
+
+    /**
+     * simple value の番号.
+     *
+     * @return 0 - 255
+     */
+    public int simpleValue() {
+        return (code & 0x1f) == 24 ? (int) len : code & 0x1f;
+    }
+
+    /**
+     * BYTES の中身.
+     * 不定長はつなげる.
+     *
+     * @return バイト列
+     */
+    public byte[] bytesValue() {
+        if (!pending || (event != Event.BYTES && event != Event.TEXT)) {
+            throw new IllegalStateException(String.valueOf(event));
+        }
+        pending = false;
+        if (len >= 0) {
+            checkLength(len);
+            return readFully(new byte[(int) Math.min(len, INITIAL_BUFFER)], 0, len);
+        }
+        byte[] ret = new byte[0];
+        int size = 0;
+        int major = code >>> 5;
+        int c = in.read();
+        while (c != 0xff) {
+            if (c < 0) {
+                throw new IllegalStateException("途中で終わった");
+            }
+            long l = CBOR.checkLen(c, CBOR.parseLen(in, c));
+            if ((c >>> 5) != major || l < 0) {
+                throw new IllegalStateException("不定長の分割が不正");
+            }
+            checkLength(size + l);
+            ret = readFully(ret, size, l);
+            size += (int) l;
+            c = in.read();
+        }
+        return ret.length == size ? ret : Arrays.copyOf(ret, size);
+    }
+
+    /**
+     * TEXT の中身
+     *
+     * @return 文字列
+     */
+    public String stringValue() {
+        return new String(bytesValue(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * TEXT の中身. 短いものは共有の String を使う.
+     * 作業用の領域に読むので byte[] を作らない.
+     *
+     * @param cache 共有表
+     * @return 文字列
+     */
+    public String stringValue(CBORKeyCache cache) {
+        if (pending && event == Event.TEXT && len >= 0 && len <= cache.maxLength()) {
+            pending = false;
+            if (skipBuffer == null) {
+                skipBuffer = new byte[4096];
+            }
+            skipBuffer = readFully(skipBuffer, 0, len);
+            return cache.get(skipBuffer, 0, (int) len);
+        }
+        return stringValue();
+    }
+
+    private void checkLength(long l) {
+        if (l > maxStringLength) {
+            throw new IllegalStateException("文字列の長さが上限を超えた " + l);
+        }
+    }
+
+    /**
+     * 届いた分だけ伸ばしながら読む.
+     * 長さを信用して先に確保しない.
+     *
+     * @param d 書き込み先. 足りなければ伸ばす
+     * @param offset 書き込み位置
+     * @param l 読む長さ
+     * @return 書き込み先
+     */
+    private byte[] readFully(byte[] d, int offset, long l) {
+        int end = (int) (offset + l);
+        while (offset < end) {
+            if (offset == d.length) {
+                d = Arrays.copyOf(d, (int) Math.min(Math.max(d.length * 2L, INITIAL_BUFFER), end));
+            }
+            int s = in.read(d, offset, Math.min(d.length, end) - offset);
+            if (s <= 0) {
+                throw new IllegalStateException("途中で終わった");
+            }
+            offset += s;
+        }
+        return d;
+    }
+
+    private void skipBytes(long l) {
+        if (skipBuffer == null) {
+            skipBuffer = new byte[4096];
+        }
+        while (l > 0) {
+            int s = in.read(skipBuffer, 0, (int) Math.min(l, skipBuffer.length));
+            if (s <= 0) {
+                throw new IllegalStateException("途中で終わった");
+            }
+            l -= s;
+        }
+    }
+
+    private void skipString() {
+        pending = false;
+        if (len >= 0) {
+            skipBytes(len);
+            return;
+        }
+        int c = in.read();
+        while (c != 0xff) {
+            if (c < 0) {
+                throw new IllegalStateException("途中で終わった");
+            }
+            long l = CBOR.checkLen(c, CBOR.parseLen(in, c));
+            if ((c >>> 5) != (code >>> 5) || l < 0) {
+                throw new IllegalStateException("不定長の分割が不正");
+            }
+            skipBytes(l);
+            c = in.read();
+        }
+    }
+
+    /**
+     * 現在の要素を読み飛ばす.
+     * START_ARRAY, START_MAP は対応する BREAK まで, TAG はタグ付けされた値まで進める.
+     */
+    public void skip() {
+        switch (event) {
+            case BYTES:
+            case TEXT:
+                if (pending) {
+                    skipString();
+                }
+                break;
+            case START_ARRAY:
+            case START_MAP:
+                int d = depth - 1;
+                while (depth > d) {
+                    next();
+                }
+                break;
+            case TAG:
+                next();
+                skip();
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * RFC 8742 CBOR Sequence.
+ * トップレベルの要素を1つずつ読み出す.
+ * バッファは使い回し, 読めた分だけ CBORPushParser に渡す.
+ * blocking の Channel 用.
+ */
+public class CBORSequenceReader implements Iterator<Object>, Closeable {
+
+    private final ReadableByteChannel ch;
+    private final ByteBuffer buffer;
+    private final CBORPushParser parser = new CBORPushParser();
+    /**
+     * CBOR null は ArrayDeque に入らないので仮の値で包む.
+     */
+    private static final Object NULL = new Object();
+    private final ArrayDeque<Object> items = new ArrayDeque<>();
+    private boolean eof;
+
+    public CBORSequenceReader(ReadableByteChannel ch) {
+        this(ch, 8192);
+    }
+
+    /**
+     *
+     * @param ch 入力
+     * @param bufferSize 読み込みバッファの大きさ
+     */
+    public CBORSequenceReader(ReadableByteChannel ch, int bufferSize) {
+        this.ch = ch;
+        buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * 要素が1つ以上揃うまで読む.
+     *
+     * @return 要素がある
+     */
+    @Override
+    public boolean hasNext() {
+        try {
+            while (items.isEmpty() && !eof) {
+                buffer.clear();
+                if (ch.read(buffer) < 0) {
+                    eof = true;
+                    if (parser.isPartial()) {
+                        throw new IllegalStateException("途中で終わった");
+                    }
+                } else {
+                    buffer.flip();
+                    parser.feed(buffer, v -> items.add(v == null ? NULL : v));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return !items.isEmpty();
+    }
+
+    /**
+     * 次の要素.
+     *
+     * @return 要素
+     */
+    @Override
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object v = items.poll();
+        return v == NULL ? null : v;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ch.close();
+    }
+}
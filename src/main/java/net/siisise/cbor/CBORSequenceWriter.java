@@ -0,0 +1,70 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * RFC 8742 CBOR Sequence 出力.
+ * CBORFormat で変換した要素を区切りなしで後ろに追加する.
+ * CBORWriter で直接書くので, 出力先へは flush, close で渡る.
+ */
+public class CBORSequenceWriter implements Flushable, Closeable {
+
+    private final CBORWriter writer;
+
+    public CBORSequenceWriter(OutputStream out) {
+        this(out, new CBORFormat());
+    }
+
+    public CBORSequenceWriter(WritableByteChannel ch) {
+        this(Channels.newOutputStream(ch));
+    }
+
+    /**
+     *
+     * @param out 出力先
+     * @param format 変換に使う CBORFormat
+     */
+    public CBORSequenceWriter(OutputStream out, CBORFormat format) {
+        writer = new CBORWriter(out, format);
+    }
+
+    /**
+     * 要素を1つ追加する.
+     *
+     * @param obj 要素
+     * @throws IOException 書き込み失敗
+     */
+    public void write(Object obj) throws IOException {
+        writer.write(obj);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
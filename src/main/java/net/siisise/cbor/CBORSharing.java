@@ -0,0 +1,223 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.util.ArrayDeque;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.stream.BaseStream;
+import net.siisise.bind.Rebind;
+import net.siisise.bind.format.TypeFormat;
+import net.siisise.io.Packet;
+
+/**
+ * 符号化での値の共有 (tag 28, 29).
+ * 先に全体をたどって2回以上出てくる Map, Collection, 配列, Bean を探し,
+ * 最初の出現に tag 28, 以降は tag 29 の参照にする.
+ * Bean は Map に変換する前のものを同一性で数え, 変換した Map を覚えておく.
+ * 循環していても止まる.
+ * 文書ごとに作る.
+ */
+class CBORSharing {
+
+    /**
+     * 出現回数. 2以上が共有の対象
+     */
+    private final IdentityHashMap<Object, Integer> counts = new IdentityHashMap<>();
+    /**
+     * 出力済みの番号
+     */
+    private final IdentityHashMap<Object, Long> indexes = new IdentityHashMap<>();
+    /**
+     * Bean と変換した Map
+     */
+    private final IdentityHashMap<Object, Map<?, ?>> beans = new IdentityHashMap<>();
+    private final CBORTags tags;
+
+    /**
+     * 全体をたどって数える. 再帰しない.
+     *
+     * @param root 値
+     * @param tags タグ付きで符号化するクラスは Bean にしない
+     */
+    CBORSharing(Object root, CBORTags tags) {
+        this.tags = tags;
+        Deque<Object> stack = new ArrayDeque<>();
+        push(stack, root);
+        while (!stack.isEmpty()) {
+            Object obj = stack.pop();
+            Integer c = counts.get(obj);
+            counts.put(obj, c == null ? 1 : c + 1);
+            if (c != null) { // 中は数えた
+                continue;
+            }
+            Map<?, ?> bean = beans.get(obj);
+            if (bean != null) {
+                obj = bean;
+            }
+            if (obj instanceof Map) {
+                for (Map.Entry e : ((Map<?, ?>) obj).entrySet()) {
+                    push(stack, e.getKey());
+                    push(stack, e.getValue());
+                }
+            } else if (obj instanceof Collection) {
+                for (Object v : (Collection) obj) {
+                    push(stack, v);
+                }
+            } else {
+                for (Object v : (Object[]) obj) {
+                    push(stack, v);
+                }
+            }
+        }
+    }
+
+    private void push(Deque<Object> stack, Object v) {
+        if (isContainer(v)) {
+            stack.push(v);
+        } else if (isBean(v)) {
+            if (!beans.containsKey(v)) {
+                Object m = Rebind.valueOf(v, PROPERTIES);
+                if (!(m instanceof Map)) {
+                    return;
+                }
+                beans.put(v, (Map<?, ?>) m);
+            }
+            stack.push(v);
+        }
+    }
+
+    private static boolean isContainer(Object obj) {
+        return obj instanceof Map || obj instanceof Collection || obj instanceof Object[];
+    }
+
+    /**
+     * Rebind で Map になるもの.
+     * JDK のクラス, 値として書くもの, 不定長の配列にするものは除く.
+     */
+    private boolean isBean(Object obj) {
+        if (obj == null || obj instanceof CharSequence || obj instanceof Number || obj instanceof Boolean
+                || obj instanceof Character || obj instanceof Enum || obj instanceof CBORRaw || obj instanceof CBORTag
+                || obj instanceof Packet || obj instanceof Iterable || obj instanceof Iterator
+                || obj instanceof BaseStream || obj instanceof Flow.Publisher) {
+            return false;
+        }
+        Class<?> c = obj.getClass();
+        String name = c.getName();
+        return !c.isArray() && !name.startsWith("java.") && !name.startsWith("javax.") && tags.encoding(c) == null;
+    }
+
+    /**
+     * Bean を変換した Map.
+     * 符号化では Bean の代わりにこれを書き, 中の Bean も同一性で見る.
+     *
+     * @param obj 値
+     * @return Map または null
+     */
+    Map<?, ?> properties(Object obj) {
+        return obj == null ? null : beans.get(obj);
+    }
+
+    /**
+     * Rebind が Bean を渡す Map をそのまま取り出す. 値は変換しない.
+     */
+    private static final TypeFormat<Object> PROPERTIES = new TypeFormat<Object>() {
+        @Override
+        public Object nullFormat() {
+            return null;
+        }
+
+        @Override
+        public Object undefinedFormat() {
+            return null;
+        }
+
+        @Override
+        public Object booleanFormat(boolean bool) {
+            return bool;
+        }
+
+        @Override
+        public Object numberFormat(Number num) {
+            return num;
+        }
+
+        @Override
+        public Object stringFormat(String str) {
+            return str;
+        }
+
+        @Override
+        public Object mapFormat(Map map) {
+            return map;
+        }
+
+        @Override
+        public Object collectionFormat(Collection col) {
+            return col;
+        }
+
+        @Override
+        public Object datetimeFormat(Calendar cal) {
+            return cal;
+        }
+
+        @Override
+        public Object arrayFormat(Object array) {
+            return array;
+        }
+
+        @Override
+        public Object byteArrayFormat(byte[] data) {
+            return data;
+        }
+
+        @Override
+        public Object charArrayFormat(char[] chars) {
+            return chars;
+        }
+    };
+
+    /**
+     * 出力済みの共有値の番号.
+     *
+     * @param obj 値
+     * @return 番号 または null
+     */
+    Long reference(Object obj) {
+        return obj == null ? null : indexes.get(obj);
+    }
+
+    /**
+     * 共有の対象なら番号を付ける. tag 28 を書く前に呼ぶ.
+     *
+     * @param obj 値
+     * @return tag 28 を付ける
+     */
+    boolean share(Object obj) {
+        Integer c = obj == null ? null : counts.get(obj);
+        if (c == null || c < 2) {
+            return false;
+        }
+        indexes.put(obj, (long) indexes.size());
+        return true;
+    }
+}
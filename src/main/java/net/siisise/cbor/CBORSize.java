@@ -0,0 +1,206 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import net.siisise.lang.Binary16;
+
+/**
+ * 符号化したときのバイト数.
+ * CBORWriter と同じ規則で数え, バイト列は作らない.
+ */
+class CBORSize {
+
+    private final CBORFormat format;
+    /**
+     * stringref の表. 番号は使わないので数えるだけ
+     */
+    private final Map<Object, Long> refs;
+    private CBORSharing sharing;
+
+    CBORSize(CBORFormat format) {
+        this.format = format;
+        refs = format.isStringRef() ? new HashMap<>() : null;
+    }
+
+    /**
+     * 1要素の大きさ. stringref のときは tag 256 を含む.
+     *
+     * @param obj 値
+     * @return バイト数
+     */
+    long sizeOf(Object obj) {
+        if (format.isValueSharing()) {
+            sharing = new CBORSharing(obj, format.tags());
+        }
+        long size = value(obj);
+        if (refs != null) {
+            size += CBORWriter.headSize(CBORTag.STRINGREF_NAMESPACE);
+        }
+        return size;
+    }
+
+    private long value(Object obj) {
+        if (sharing != null) {
+            Long index = sharing.reference(obj);
+            if (index != null) {
+                return CBORWriter.headSize(CBORTag.SHARED_REF) + CBORWriter.headSize(index);
+            }
+            // Bean は数えたときの Map にする
+            Map<?, ?> bean = sharing.properties(obj);
+            if (sharing.share(obj)) {
+                return CBORWriter.headSize(CBORTag.SHAREABLE) + item(bean != null ? bean : obj);
+            } else if (bean != null) {
+                return item(bean);
+            }
+        }
+        return item(obj);
+    }
+
+    private long item(Object obj) {
+        if (obj == null || obj instanceof Boolean) {
+            return 1;
+        }
+        CBORTags.Encoding enc = format.tags().encoding(obj.getClass());
+        if (enc != null) {
+            return CBORWriter.headSize(enc.tag) + value(enc.encoder.encode(obj));
+        } else if (obj instanceof Number) {
+            return number((Number) obj);
+        } else if (obj instanceof CharSequence) {
+            String str = obj.toString();
+            return string(str, CBORWriter.utf8Length(str));
+        } else if (obj instanceof byte[]) {
+            byte[] data = (byte[]) obj;
+            return string(refs == null ? null : ByteBuffer.wrap(data), data.length);
+        } else if (obj instanceof char[]) {
+            return value(String.valueOf((char[]) obj));
+        } else if (obj instanceof CBORIntMap && ((CBORIntMap) obj).intOnly()) {
+            // stringref の番号が合うように CBORWriter と同じ順で数える
+            CBORIntMap map = (CBORIntMap) obj;
+            int n = map.size();
+            int zero = map.zero();
+            long size = CBORWriter.headSize(n);
+            for (int i = 0; i < n; i++) {
+                int j = map.encodeIndex(i, zero);
+                long k = map.keyAt(j);
+                size += CBORWriter.headSize(k >= 0 ? k : -1 - k) + value(map.valueAt(j));
+            }
+            return size;
+        } else if (obj instanceof Map) {
+            Map<?, ?> map = (Map) obj;
+            long size = CBORWriter.headSize(map.size());
+            for (Map.Entry e : map.entrySet()) {
+                size += value(e.getKey()) + value(e.getValue());
+            }
+            return size;
+        } else if (obj instanceof Collection) {
+            Collection<?> col = (Collection) obj;
+            long size = CBORWriter.headSize(col.size());
+            for (Object v : col) {
+                size += value(v);
+            }
+            return size;
+        } else if (obj instanceof Object[]) {
+            Object[] array = (Object[]) obj;
+            long size = CBORWriter.headSize(array.length);
+            for (Object v : array) {
+                size += value(v);
+            }
+            return size;
+        } else if (CBORWriter.isStream(obj)) {
+            throw new UnsupportedOperationException("読まないと大きさがわからない");
+        } else if (obj instanceof CBORRaw) {
+            CBORRaw raw = (CBORRaw) obj;
+            if (raw.isEmbedded()) {
+                return CBORWriter.headSize(CBORTag.ENCODED_CBOR) + string(refs == null ? null : ByteBuffer.wrap(raw.data()), raw.length());
+            }
+            return (refs == null ? 0 : CBORWriter.headSize(CBORTag.STRINGREF_NAMESPACE)) + raw.length();
+        } else if (obj instanceof CBORTag) {
+            CBORTag t = (CBORTag) obj;
+            return CBORWriter.headSize(t.tag().longValue()) + value(t.value());
+        } else if (obj instanceof long[] || obj instanceof int[] || obj instanceof short[]
+                || obj instanceof float[] || obj instanceof double[]) {
+            Class<?> c = obj.getClass().getComponentType();
+            int unit = c == long.class || c == double.class ? 8 : c == short.class ? 2 : 4;
+            long len = (long) Array.getLength(obj) * unit;
+            if (refs != null) { // 表のキーに中身がいる
+                ByteBuffer typed = CBORTypedArray.encode(obj);
+                return CBORWriter.headSize(CBORTypedArray.tag(obj)) + string(typed, len);
+            }
+            return CBORWriter.headSize(CBORTypedArray.tag(obj)) + CBORWriter.headSize(len) + len;
+        }
+        return format.document(refs, sharing).item(obj).length();
+    }
+
+    private long number(Number num) {
+        if (num instanceof Long || num instanceof Integer || num instanceof Short || num instanceof Byte) {
+            long v = num.longValue();
+            return CBORWriter.headSize(v >= 0 ? v : -1 - v);
+        } else if (num instanceof Double) {
+            double d = num.doubleValue();
+            float f = (float) d;
+            if (Double.doubleToLongBits(d) != Double.doubleToLongBits(f)) {
+                return 9;
+            }
+            return CBORWriter.isHalf(f) ? 3 : 5;
+        } else if (num instanceof Float) {
+            return CBORWriter.isHalf(num.floatValue()) ? 3 : 5;
+        } else if (num instanceof Binary16) {
+            return 3;
+        } else if (num instanceof BigInteger) {
+            return bigInteger((BigInteger) num);
+        } else if (num instanceof BigDecimal) {
+            BigDecimal bd = (BigDecimal) num;
+            long exp = -(long) bd.scale();
+            return 2 + CBORWriter.headSize(exp >= 0 ? exp : -1 - exp) + bigInteger(bd.unscaledValue());
+        }
+        return format.document(refs, sharing).item(num).length();
+    }
+
+    private long bigInteger(BigInteger bi) {
+        if (bi.signum() < 0) {
+            bi = bi.not();
+        }
+        if (bi.bitLength() <= 64) {
+            return bi.bitLength() == 64 ? 9 : CBORWriter.headSize(bi.longValue());
+        }
+        long len = (bi.bitLength() + 7) / 8;
+        return 1 + string(refs == null ? null : ByteBuffer.wrap(CBORWriter.magnitude(bi)), len);
+    }
+
+    /**
+     * 文字列, バイト列. stringref の表にあれば参照の大きさ.
+     */
+    private long string(Object key, long len) {
+        if (refs != null) {
+            Long index = refs.get(key);
+            if (index != null) {
+                return CBORWriter.headSize(CBORTag.STRINGREF) + CBORWriter.headSize(index);
+            }
+            long next = refs.size();
+            if (CBORFormat.stringRefWorth(next, len)) {
+                refs.put(key, next);
+            }
+        }
+        return CBORWriter.headSize(len) + len;
+    }
+}
@@ -25,17 +25,59 @@ public class CBORTag<T> {
     public static final long POSITIVE_BIGNUM = 2;
     public static final long NEGATIVE_BIGNUM = 3;
     public static final long DECIMAL_FRACTION = 4;
+    public static final long BIGFLOAT = 5;
+    /**
+     * RFC 8943 1970-01-01 からの日数
+     */
+    public static final long EPOCH_DATE = 100;
+    /**
+     * RFC 8943 RFC 3339 full-date 文字列
+     */
+    public static final long FULL_DATE = 1004;
 
     public static final long EXPECTED_CONVERSION_BASE64URL = 21;
     public static final long EXPECTED_CONVERSION_BASE64 = 22;
     public static final long EXPECTED_CONVERSION_BASE16 = 23;
 
+    /**
+     * stringref 参照
+     */
+    public static final long STRINGREF = 25;
+
+    /**
+     * 共有される値
+     */
+    public static final long SHAREABLE = 28;
+    /**
+     * 共有値の参照
+     */
+    public static final long SHARED_REF = 29;
+
+    /**
+     * Encoded CBOR data item
+     */
+    public static final long ENCODED_CBOR = 24;
+
     // UTF-8 String
     public static final long URI = 32;
     public static final long BASE64URL = 33;
     public static final long BASE64 = 34;
     public static final long REGEX = 35;
     public static final long MIME_MESSAGE = 36;
+    public static final long UUID = 37;
+
+    /**
+     * Packed CBOR 共有要素の参照
+     */
+    public static final long PACKED_SHARED = 6;
+    /**
+     * Packed CBOR 表の設定
+     */
+    public static final long PACKED = 113;
+    /**
+     * stringref 表の範囲
+     */
+    public static final long STRINGREF_NAMESPACE = 256;
     
     Number tag;
     T value;
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import net.siisise.io.BASE64;
+import net.siisise.io.Packet;
+import net.siisise.lang.Bin;
+
+/**
+ * タグ番号ごとの変換表.
+ * 1バイトで書けるタグ (0-255) は配列, それ以外は long キーのハッシュ表で引く.
+ * 変換は状態を持たず共有する.
+ * 登録は写して差し替えるので, 読む側はロックなしで複数スレッドから使える.
+ */
+public class CBORTags {
+
+    /**
+     * タグ付きの値から Java の値へ.
+     */
+    @FunctionalInterface
+    public interface Decoder {
+
+        /**
+         *
+         * @param tag タグ番号
+         * @param value タグ付けされた値. 展開済み
+         * @return 変換後の値. 変換しないときは CBORTag
+         */
+        Object decode(long tag, Object value);
+    }
+
+    /**
+     * Java の値からタグ付けする値へ.
+     *
+     * @param <T> 型
+     */
+    @FunctionalInterface
+    public interface Encoder<T> {
+
+        /**
+         *
+         * @param value 値
+         * @return タグの中身として符号化する値
+         */
+        Object encode(T value);
+    }
+
+    static final class Encoding {
+
+        final long tag;
+        final Encoder encoder;
+
+        Encoding(long tag, Encoder encoder) {
+            this.tag = tag;
+            this.encoder = encoder;
+        }
+    }
+
+    /**
+     * 配列で引く範囲
+     */
+    private static final int SMALL = 0x100;
+
+    private static final BASE64 B64URL = new BASE64(BASE64.URL, 0);
+    private static final BASE64 B64 = new BASE64(BASE64.BASE64, 0);
+
+    private static final CBORTags DEFAULT = new CBORTags();
+
+    private volatile Decoder[] small = new Decoder[SMALL];
+    /**
+     * SMALL 以上のタグ
+     */
+    private volatile LongTable large = new LongTable(new long[0], new Decoder[0]);
+    private volatile Map<Class<?>, Encoding> encoders = new HashMap<>();
+
+    /**
+     * long キーの表. 開番地法. 作ったあとは変えない.
+     */
+    private static final class LongTable {
+
+        final long[] keys;
+        /**
+         * 空きは null
+         */
+        final Decoder[] values;
+        final int mask;
+
+        LongTable(long[] keys, Decoder[] values) {
+            int n = 16;
+            while (n < keys.length * 2) {
+                n <<= 1;
+            }
+            this.keys = new long[n];
+            this.values = new Decoder[n];
+            mask = n - 1;
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] != null) {
+                    int j = hash(keys[i]) & mask;
+                    while (this.values[j] != null) {
+                        j = (j + 1) & mask;
+                    }
+                    this.keys[j] = keys[i];
+                    this.values[j] = values[i];
+                }
+            }
+        }
+
+        Decoder get(long tag) {
+            for (int i = hash(tag) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == tag) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 1つ差し替えた表.
+         */
+        LongTable with(long tag, Decoder decoder) {
+            int n = 0;
+            long[] k = new long[keys.length + 1];
+            Decoder[] v = new Decoder[keys.length + 1];
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] != null && keys[i] != tag) {
+                    k[n] = keys[i];
+                    v[n++] = values[i];
+                }
+            }
+            k[n] = tag;
+            v[n++] = decoder;
+            return new LongTable(Arrays.copyOf(k, n), Arrays.copyOf(v, n));
+        }
+    }
+
+    /**
+     * 標準の変換を登録したもの.
+     */
+    public CBORTags() {
+        register(CBORTag.POSITIVE_BIGNUM, CBORTags::decodeBignum);
+        register(CBORTag.NEGATIVE_BIGNUM, CBORTags::decodeBignum);
+        register(CBORTag.DECIMAL_FRACTION, CBORTags::decodeDecimal);
+        register(CBORTag.BIGFLOAT, CBORTags::decodeDecimal);
+        register(CBORTag.STANDARD_DATETIME, CBORTime::decodeDateTime);
+        register(CBORTag.EPOCH_BASED_DATE_TIME, CBORTime::decodeEpoch);
+        register(CBORTag.EPOCH_DATE, CBORTime::decodeEpochDays);
+        register(CBORTag.FULL_DATE, CBORTime::decodeFullDate);
+        register(CBORTag.EXPECTED_CONVERSION_BASE64URL, (t, v) -> new CBORTag(t, B64URL.encode(CBOR.bytes(v))));
+        register(CBORTag.EXPECTED_CONVERSION_BASE64, (t, v) -> new CBORTag(t, B64.encode(CBOR.bytes(v))));
+        register(CBORTag.EXPECTED_CONVERSION_BASE16, (t, v) -> new CBORTag(t, Bin.toUpperHex(CBOR.bytes(v))));
+        register(CBORTag.ENCODED_CBOR, (t, v) -> v instanceof byte[] || v instanceof ByteBuffer
+                ? new CBORRaw(CBOR.bytes(v), true) : new CBORTag(t, v));
+        register(CBORTag.URI, (t, v) -> v instanceof CharSequence ? URI.create(v.toString()) : new CBORTag(t, v));
+        register(CBORTag.REGEX, (t, v) -> v instanceof CharSequence ? Pattern.compile(v.toString()) : new CBORTag(t, v));
+        register(CBORTag.UUID, CBORTags::decodeUUID);
+        Decoder typed = (t, v) -> v instanceof byte[] || v instanceof ByteBuffer
+                ? CBORTypedArray.decode((int) t, v instanceof byte[] ? ByteBuffer.wrap((byte[]) v) : (ByteBuffer) v)
+                : new CBORTag(t, v);
+        for (int t = 64; t <= 87; t++) {
+            if (CBORTypedArray.isTypedArray(t)) {
+                register(t, typed);
+            }
+        }
+        register(URI.class, CBORTag.URI, URI::toString);
+        register(Pattern.class, CBORTag.REGEX, Pattern::pattern);
+        register(UUID.class, CBORTag.UUID, CBORTags::encodeUUID);
+        register(Instant.class, CBORTag.EPOCH_BASED_DATE_TIME, t -> CBORTime.epoch(t));
+        register(Calendar.class, CBORTag.EPOCH_BASED_DATE_TIME, c -> CBORTime.epoch(c));
+        register(OffsetDateTime.class, CBORTag.STANDARD_DATETIME, CBORTime::format);
+        register(LocalDate.class, CBORTag.EPOCH_DATE, LocalDate::toEpochDay);
+    }
+
+    /**
+     * CBOR.parse などで使う共有の表.
+     *
+     * @return 標準の表
+     */
+    public static CBORTags getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 展開の登録. 同じタグは上書きする.
+     *
+     * @param tag タグ番号
+     * @param decoder 変換. null で登録を外す
+     */
+    public synchronized void register(long tag, Decoder decoder) {
+        if (tag >= 0 && tag < SMALL) {
+            Decoder[] s = small.clone();
+            s[(int) tag] = decoder;
+            small = s;
+        } else {
+            large = large.with(tag, decoder);
+        }
+    }
+
+    /**
+     * 符号化の登録. 同じクラスは上書きする.
+     *
+     * @param <T> 型
+     * @param type 対象のクラス. サブクラスにも使う
+     * @param tag タグ番号
+     * @param encoder タグの中身を作る
+     */
+    public synchronized <T> void register(Class<T> type, long tag, Encoder<? super T> encoder) {
+        Map<Class<?>, Encoding> map = new HashMap<>(encoders);
+        map.put(type, new Encoding(tag, encoder));
+        encoders = map;
+    }
+
+    private static int hash(long tag) {
+        long h = tag * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * 登録された展開.
+     *
+     * @param tag タグ番号
+     * @return 変換 または null
+     */
+    public Decoder decoder(long tag) {
+        if (tag >= 0 && tag < SMALL) {
+            return small[(int) tag];
+        }
+        return large.get(tag);
+    }
+
+    /**
+     * タグ付きの値を変換する.
+     *
+     * @param tag タグ番号
+     * @param value 展開済みの値
+     * @return 変換後の値. 登録がなければ CBORTag
+     */
+    public Object decode(long tag, Object value) {
+        Decoder d = decoder(tag);
+        return d == null ? new CBORTag(tag, value) : d.decode(tag, value);
+    }
+
+    /**
+     * 符号化に使うタグを探す.
+     *
+     * @param type クラス
+     * @return 登録 または null
+     */
+    Encoding encoding(Class<?> type) {
+        Map<Class<?>, Encoding> map = encoders;
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            Encoding e = map.get(c);
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 登録されたクラスならタグ付きで符号化する.
+     *
+     * @param value 値
+     * @param format 中身の符号化
+     * @return CBOR または null
+     */
+    Packet encode(Object value, CBORFormat format) {
+        if (value == null) {
+            return null;
+        }
+        Encoding e = encoding(value.getClass());
+        if (e == null) {
+            return null;
+        }
+        Packet pac = format.tag(e.tag);
+        pac.write(format.value(e.encoder.encode(value)));
+        return pac;
+    }
+
+    /**
+     * bigfloat の指数の上限. 2のべき乗を展開するので大きくしない
+     */
+    private static final int MAX_BIGFLOAT_EXP = 0x10000;
+
+    private static Object decodeBignum(long tag, Object v) {
+        if (v instanceof byte[] || v instanceof ByteBuffer) {
+            BigInteger n = new BigInteger(1, CBOR.bytes(v));
+            return tag == CBORTag.POSITIVE_BIGNUM ? n : n.not(); // -1 - n
+        }
+        return new CBORTag(tag, v);
+    }
+
+    /**
+     * tag 4 [指数, 仮数] 10進, tag 5 [指数, 仮数] 2進 を BigDecimal にする.
+     */
+    private static Object decodeDecimal(long tag, Object v) {
+        if (v instanceof List && ((List) v).size() == 2) {
+            Object e = ((List) v).get(0);
+            Object m = ((List) v).get(1);
+            if (e instanceof Long && (m instanceof Long || m instanceof BigInteger)) {
+                long exp = (Long) e;
+                if (tag == CBORTag.DECIMAL_FRACTION && -exp == (int) -exp) {
+                    return m instanceof Long ? BigDecimal.valueOf((Long) m, (int) -exp) : new BigDecimal((BigInteger) m, (int) -exp);
+                } else if (tag == CBORTag.BIGFLOAT && Math.abs(exp) <= MAX_BIGFLOAT_EXP) {
+                    BigInteger mant = m instanceof Long ? BigInteger.valueOf((Long) m) : (BigInteger) m;
+                    if (exp >= 0) {
+                        return new BigDecimal(mant.shiftLeft((int) exp));
+                    }
+                    // m / 2^k = m * 5^k / 10^k
+                    return new BigDecimal(mant.multiply(BigInteger.valueOf(5).pow((int) -exp)), (int) -exp);
+                }
+            }
+        }
+        return new CBORTag(tag, v);
+    }
+
+    private static Object decodeUUID(long tag, Object v) {
+        if (v instanceof byte[] || v instanceof ByteBuffer) {
+            byte[] b = CBOR.bytes(v);
+            if (b.length == 16) {
+                ByteBuffer bb = ByteBuffer.wrap(b);
+                return new UUID(bb.getLong(), bb.getLong());
+            }
+        }
+        return new CBORTag(tag, v);
+    }
+
+    private static byte[] encodeUUID(UUID uuid) {
+        ByteBuffer bb = ByteBuffer.allocate(16);
+        bb.putLong(uuid.getMostSignificantBits());
+        bb.putLong(uuid.getLeastSignificantBits());
+        return bb.array();
+    }
+}
@@ -0,0 +1,668 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.siisise.bind.Rebind;
+
+/**
+ * 構造の索引 (tape).
+ * 1回読むだけで全要素の種類, 位置, 子の一覧を direct buffer に書き出し,
+ * 以後は読み直さずに N番目の要素や Map のキーへ移動できる.
+ * 2GBを超えるファイルは FileChannel の位置指定読みで扱う.
+ *
+ * 1要素32バイト.
+ * <pre>
+ *  0 int  先頭バイト
+ *  4 long 要素の位置
+ * 12 long 要素の終わりの位置
+ * 20 int  子の数. Map はキーと値で2つ
+ * 24 int  子の一覧の位置
+ * 28 int  部分木の次の要素番号
+ * </pre>
+ * Map はキーの符号化のハッシュで並べた表も子の一覧と同じ位置に持ち,
+ * get はそれを二分探索する.
+ */
+public class CBORTape {
+
+    private static final int ENTRY = 32;
+    private static final int CHUNK_BITS = 15;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private static final int CODE = 0;
+    private static final int OFFSET = 4;
+    private static final int END = 12;
+    private static final int COUNT = 20;
+    private static final int CHILDREN = 24;
+    private static final int NEXT = 28;
+
+    /**
+     * 元データ
+     */
+    private interface Source {
+
+        int read(ByteBuffer dst, long pos) throws IOException;
+
+        long size() throws IOException;
+    }
+
+    private final Source src;
+    /**
+     * 要素の表
+     */
+    private final List<ByteBuffer> entries = new ArrayList<>();
+    private int entryCount;
+    /**
+     * 子の一覧
+     */
+    private final List<ByteBuffer> children = new ArrayList<>();
+    private int childCount;
+    /**
+     * Map のキーの表. 子の一覧と同じ位置に (ハッシュ, 組の番号) をハッシュの昇順に置く
+     */
+    private final List<ByteBuffer> keys = new ArrayList<>();
+    /**
+     * トップレベルの要素
+     */
+    private int[] roots = new int[4];
+    private int rootCount;
+
+    private CBORTape(Source src) {
+        this.src = src;
+    }
+
+    /**
+     * ファイルの索引を作る.
+     *
+     * @param ch 入力. 索引を使う間は閉じないこと
+     * @return 索引
+     * @throws IOException 読めない
+     */
+    public static CBORTape index(FileChannel ch) throws IOException {
+        CBORTape tape = new CBORTape(new Source() {
+            @Override
+            public int read(ByteBuffer dst, long pos) throws IOException {
+                return ch.read(dst, pos);
+            }
+
+            @Override
+            public long size() throws IOException {
+                return ch.size();
+            }
+        });
+        try {
+            tape.build();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return tape;
+    }
+
+    /**
+     * メモリ上, または map した CBOR の索引を作る.
+     *
+     * @param buf 入力. position から limit まで
+     * @return 索引
+     */
+    public static CBORTape index(ByteBuffer buf) {
+        ByteBuffer b = buf.slice();
+        CBORTape tape = new CBORTape(new Source() {
+            @Override
+            public int read(ByteBuffer dst, long pos) {
+                if (pos >= b.limit()) {
+                    return -1;
+                }
+                ByteBuffer s = b.duplicate();
+                s.position((int) pos);
+                s.limit((int) Math.min(b.limit(), pos + dst.remaining()));
+                int len = s.remaining();
+                dst.put(s);
+                return len;
+            }
+
+            @Override
+            public long size() {
+                return b.limit();
+            }
+        });
+        tape.build();
+        return tape;
+    }
+
+    /**
+     * 順に読むためのバッファ
+     */
+    private class Cursor {
+
+        final ByteBuffer buf = ByteBuffer.allocate(8192);
+        long base;
+        long size;
+
+        Cursor() {
+            try {
+                size = src.size();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buf.limit(0);
+        }
+
+        long position() {
+            return base + buf.position();
+        }
+
+        boolean hasRemaining() {
+            return position() < size;
+        }
+
+        int get() {
+            if (!buf.hasRemaining()) {
+                base += buf.position();
+                buf.clear();
+                try {
+                    while (buf.position() == 0) {
+                        if (src.read(buf, base) < 0) {
+                            throw new IllegalStateException("途中で終わった");
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                buf.flip();
+            }
+            return buf.get() & 0xff;
+        }
+
+        long arg(int code) {
+            int ai = code & 0x1f;
+            if (ai < 24) {
+                return ai;
+            } else if (ai == 31) {
+                return -1;
+            } else if (ai > 27) {
+                throw new UnsupportedOperationException("予約コード");
+            }
+            long len = 0;
+            for (int i = 1 << (ai - 24); i > 0; i--) {
+                len = (len << 8) | get();
+            }
+            return len;
+        }
+
+        void skip(long len) {
+            long p = position() + len;
+            if (len < 0 || p > size) {
+                throw new IllegalStateException("途中で終わった");
+            }
+            if (p <= base + buf.limit()) {
+                buf.position((int) (p - base));
+            } else {
+                base = p;
+                buf.limit(0);
+            }
+        }
+
+        /**
+         * 読んだ範囲のハッシュ. Arrays.hashCode(byte[]) と同じ値.
+         * バッファに残っていなければ読み直す.
+         */
+        int hash(long from, long to) {
+            if (from < base) {
+                return Arrays.hashCode(read(from, to));
+            }
+            int h = 1;
+            for (int i = (int) (from - base); i < (int) (to - base); i++) {
+                h = 31 * h + buf.get(i);
+            }
+            return h;
+        }
+    }
+
+    /**
+     * 1回で全体を読む. 再帰せずスタックで入れ子を持つ.
+     */
+    private void build() {
+        Cursor in = new Cursor();
+        // 開いている配列, Map, タグ
+        int[] open = new int[16];
+        long[] remain = new long[16];
+        int[] slot = new int[16];
+        int[][] indef = new int[16][];
+        // Map のとき キーの位置と不定長のキーのハッシュ
+        boolean[] map = new boolean[16];
+        long[] keyStart = new long[16];
+        int[][] indefHash = new int[16][];
+        int depth = 0;
+
+        while (true) {
+            while (depth > 0 && remain[depth - 1] == 0) {
+                close(open[--depth], in.position());
+            }
+            if (depth == 0 && !in.hasRemaining()) {
+                break;
+            }
+            long start = in.position();
+            int code = in.get();
+            if (code == 0xff) {
+                if (depth == 0 || remain[depth - 1] != -1) {
+                    throw new IllegalStateException("BREAK");
+                }
+                depth--;
+                int e = open[depth];
+                int n = slot[depth];
+                int cs = childCount;
+                for (int i = 0; i < n; i++) {
+                    setChild(childCount++, indef[depth][i]);
+                }
+                if (map[depth]) {
+                    for (int i = 0; i < n / 2; i++) {
+                        setSlot(keys, cs + i * 2, indefHash[depth][i]);
+                    }
+                    indefHash[depth] = null;
+                }
+                indef[depth] = null;
+                putInt(e, COUNT, n);
+                putInt(e, CHILDREN, cs);
+                close(e, in.position());
+                continue;
+            }
+            long arg = CBOR.checkLen(code, in.arg(code));
+            int major = code >>> 5;
+            int e = entryCount++;
+            putInt(e, CODE, code);
+            putLong(e, OFFSET, start);
+            putInt(e, COUNT, 0);
+            putInt(e, CHILDREN, 0);
+            if (depth > 0 && map[depth - 1]) {
+                int d = depth - 1;
+                if (remain[d] < 0 ? (slot[d] & 1) == 0 : (remain[d] & 1) == 0) {
+                    keyStart[d] = start;
+                } else {
+                    // 値の前までがキー
+                    int h = in.hash(keyStart[d], start);
+                    if (remain[d] >= 0) {
+                        setSlot(keys, slot[d] - 1, h);
+                    } else {
+                        if (slot[d] / 2 == indefHash[d].length) {
+                            indefHash[d] = Arrays.copyOf(indefHash[d], slot[d]);
+                        }
+                        indefHash[d][slot[d] / 2] = h;
+                    }
+                }
+            }
+            // 親に登録
+            if (depth == 0) {
+                if (rootCount == roots.length) {
+                    roots = Arrays.copyOf(roots, rootCount * 2);
+                }
+                roots[rootCount++] = e;
+            } else if (remain[depth - 1] < 0) {
+                int d = depth - 1;
+                if (slot[d] == indef[d].length) {
+                    indef[d] = Arrays.copyOf(indef[d], slot[d] * 2);
+                }
+                indef[d][slot[d]++] = e;
+            } else {
+                setChild(slot[depth - 1]++, e);
+                remain[depth - 1]--;
+            }
+
+            long count;
+            switch (major) {
+                case 2:
+                case 3:
+                    if (arg >= 0) {
+                        in.skip(arg);
+                    } else {
+                        int c = in.get();
+                        while (c != 0xff) {
+                            long l = CBOR.checkLen(c, in.arg(c));
+                            if ((c >>> 5) != major || l < 0) {
+                                throw new IllegalStateException("不定長の分割が不正");
+                            }
+                            in.skip(l);
+                            c = in.get();
+                        }
+                    }
+                    count = 0;
+                    break;
+                case 4:
+                    count = arg;
+                    break;
+                case 5:
+                    count = arg < 0 ? -1 : arg * 2;
+                    break;
+                case 6:
+                    count = 1;
+                    break;
+                default:
+                    count = 0;
+                    break;
+            }
+            if (count == 0) {
+                close(e, in.position());
+                continue;
+            }
+            if (count > Integer.MAX_VALUE - childCount) {
+                throw new UnsupportedOperationException("大きすぎ");
+            }
+            if (depth == open.length) {
+                int n = depth * 2;
+                open = Arrays.copyOf(open, n);
+                remain = Arrays.copyOf(remain, n);
+                slot = Arrays.copyOf(slot, n);
+                indef = Arrays.copyOf(indef, n);
+                map = Arrays.copyOf(map, n);
+                keyStart = Arrays.copyOf(keyStart, n);
+                indefHash = Arrays.copyOf(indefHash, n);
+            }
+            open[depth] = e;
+            remain[depth] = count;
+            map[depth] = major == 5;
+            if (count < 0) {
+                slot[depth] = 0;
+                indef[depth] = new int[16];
+                if (major == 5) {
+                    indefHash[depth] = new int[8];
+                }
+            } else {
+                // 定長は子の一覧の場所を先に取っておく
+                slot[depth] = childCount;
+                putInt(e, COUNT, (int) count);
+                putInt(e, CHILDREN, childCount);
+                childCount += (int) count;
+            }
+            depth++;
+        }
+        if (depth > 0) {
+            throw new IllegalStateException("途中で終わった");
+        }
+    }
+
+    private void close(int e, long end) {
+        putLong(e, END, end);
+        putInt(e, NEXT, entryCount);
+        if ((getInt(e, CODE) >>> 5) == 5) {
+            sortKeys(e);
+        }
+    }
+
+    /**
+     * キーのハッシュを昇順に並べ, 組の番号を添える.
+     * 同じハッシュは元の順.
+     */
+    private void sortKeys(int e) {
+        int base = getInt(e, CHILDREN);
+        int n = getInt(e, COUNT) / 2;
+        long[] s = new long[n];
+        for (int i = 0; i < n; i++) {
+            s[i] = ((long) getSlot(keys, base + i * 2) << 32) | i;
+        }
+        Arrays.sort(s);
+        for (int i = 0; i < n; i++) {
+            setSlot(keys, base + i * 2, (int) (s[i] >> 32));
+            setSlot(keys, base + i * 2 + 1, (int) s[i]);
+        }
+    }
+
+    private ByteBuffer entry(int e) {
+        int c = e >>> CHUNK_BITS;
+        while (c >= entries.size()) {
+            entries.add(ByteBuffer.allocateDirect(ENTRY << CHUNK_BITS));
+        }
+        return entries.get(c);
+    }
+
+    private void putInt(int e, int field, int v) {
+        entry(e).putInt(((e & CHUNK_MASK) * ENTRY) + field, v);
+    }
+
+    private void putLong(int e, int field, long v) {
+        entry(e).putLong(((e & CHUNK_MASK) * ENTRY) + field, v);
+    }
+
+    private int getInt(int e, int field) {
+        return entries.get(e >>> CHUNK_BITS).getInt(((e & CHUNK_MASK) * ENTRY) + field);
+    }
+
+    private long getLong(int e, int field) {
+        return entries.get(e >>> CHUNK_BITS).getLong(((e & CHUNK_MASK) * ENTRY) + field);
+    }
+
+    private void setChild(int i, int e) {
+        setSlot(children, i, e);
+    }
+
+    private int getChild(int i) {
+        return getSlot(children, i);
+    }
+
+    private static void setSlot(List<ByteBuffer> list, int i, int v) {
+        int c = i >>> (CHUNK_BITS + 3);
+        while (c >= list.size()) {
+            list.add(ByteBuffer.allocateDirect(4 << (CHUNK_BITS + 3)));
+        }
+        list.get(c).putInt((i & ((1 << (CHUNK_BITS + 3)) - 1)) * 4, v);
+    }
+
+    private static int getSlot(List<ByteBuffer> list, int i) {
+        return list.get(i >>> (CHUNK_BITS + 3)).getInt((i & ((1 << (CHUNK_BITS + 3)) - 1)) * 4);
+    }
+
+    /**
+     * 元データの一部を読む.
+     */
+    private byte[] read(long offset, long end) {
+        if (end - offset > Integer.MAX_VALUE - 8) {
+            throw new UnsupportedOperationException("大きすぎ");
+        }
+        ByteBuffer b = ByteBuffer.allocate((int) (end - offset));
+        try {
+            while (b.hasRemaining()) {
+                if (src.read(b, offset + b.position()) < 0) {
+                    throw new IllegalStateException("途中で終わった");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return b.array();
+    }
+
+    /**
+     * トップレベルの要素数. CBOR Sequence のときは2以上.
+     *
+     * @return 要素数
+     */
+    public int count() {
+        return rootCount;
+    }
+
+    /**
+     * 索引に含まれる全要素数.
+     *
+     * @return 要素数
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * 最初のトップレベルの要素.
+     *
+     * @return 要素
+     */
+    public Node root() {
+        return item(0);
+    }
+
+    /**
+     * トップレベルの要素.
+     *
+     * @param i 番号
+     * @return 要素
+     */
+    public Node item(int i) {
+        if (i < 0 || i >= rootCount) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new Node(roots[i]);
+    }
+
+    /**
+     * 索引上の要素.
+     */
+    public class Node {
+
+        private final int e;
+
+        Node(int e) {
+            this.e = e;
+        }
+
+        /**
+         * major type.
+         *
+         * @return 0 - 7
+         */
+        public int major() {
+            return getInt(e, CODE) >>> 5;
+        }
+
+        /**
+         * 子の数. 配列は要素数, Map はキーと値の組数, タグは1.
+         *
+         * @return 子の数
+         */
+        public int size() {
+            int c = getInt(e, COUNT);
+            return major() == 5 ? c / 2 : c;
+        }
+
+        /**
+         * 要素の位置.
+         *
+         * @return 先頭バイトの位置
+         */
+        public long offset() {
+            return getLong(e, OFFSET);
+        }
+
+        /**
+         * 要素の終わり.
+         *
+         * @return 次の要素の位置
+         */
+        public long end() {
+            return getLong(e, END);
+        }
+
+        /**
+         * 配列の要素, Map の値, タグ付けされた値.
+         *
+         * @param i 番号
+         * @return 子
+         */
+        public Node child(int i) {
+            int m = major();
+            if (i < 0 || i >= size()) {
+                throw new IndexOutOfBoundsException();
+            }
+            int base = getInt(e, CHILDREN);
+            return new Node(getChild(m == 5 ? base + i * 2 + 1 : base + i));
+        }
+
+        /**
+         * Map のキー.
+         *
+         * @param i 番号
+         * @return キー
+         */
+        public Node key(int i) {
+            if (major() != 5) {
+                throw new IllegalStateException("Mapではない");
+            }
+            if (i < 0 || i >= size()) {
+                throw new IndexOutOfBoundsException();
+            }
+            return new Node(getChild(getInt(e, CHILDREN) + i * 2));
+        }
+
+        /**
+         * Map の値.
+         * キーは展開せず, CBORFormat で変換したバイト列どうしで比較する.
+         * 索引のハッシュを二分探索し, 同じハッシュのものだけ読む.
+         * 同じキーが複数あるときは最初のもの.
+         *
+         * @param key キー
+         * @return 値 または null
+         */
+        public Node get(Object key) {
+            if (major() != 5) {
+                throw new IllegalStateException("Mapではない");
+            }
+            byte[] k = Rebind.valueOf(key, new CBORFormat()).toByteArray();
+            int h = Arrays.hashCode(k);
+            int base = getInt(e, CHILDREN);
+            int n = getInt(e, COUNT) / 2;
+            int lo = 0;
+            int hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (getSlot(keys, base + mid * 2) < h) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (; lo < n && getSlot(keys, base + lo * 2) == h; lo++) {
+                int i = getSlot(keys, base + lo * 2 + 1) * 2;
+                int ke = getChild(base + i);
+                long off = getLong(ke, OFFSET);
+                long end = getLong(ke, END);
+                if (end - off == k.length && Arrays.equals(k, read(off, end))) {
+                    return new Node(getChild(base + i + 1));
+                }
+            }
+            return null;
+        }
+
+        /**
+         * タグ番号, 整数の引数など.
+         *
+         * @return 符号なし64bit
+         */
+        public long arg() {
+            byte[] h = read(offset(), Math.min(end(), offset() + 9));
+            return CBOR.parseLen(ByteBuffer.wrap(h, 1, h.length - 1), h[0] & 0xff);
+        }
+
+        /**
+         * 展開する.
+         *
+         * @return CBOR.parse と同じ
+         */
+        public Object value() {
+            return CBOR.parse(read(offset(), end()));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * major 3 text string の遅延変換.
+ * 元の UTF-8 を参照したまま, 必要になったときに String にする.
+ * ASCII のみなら String にせず1文字ずつ読む.
+ */
+public class CBORText implements CharSequence {
+
+    private final ByteBuffer utf8;
+    /**
+     * 0: 未確認 1: ASCII のみ 2: それ以外
+     */
+    private int ascii;
+    private String str;
+
+    /**
+     *
+     * @param utf8 UTF-8 の中身. position から limit まで
+     */
+    public CBORText(ByteBuffer utf8) {
+        this.utf8 = utf8;
+    }
+
+    /**
+     * 元の UTF-8.
+     *
+     * @return 読み込み専用
+     */
+    public ByteBuffer utf8() {
+        return utf8.asReadOnlyBuffer();
+    }
+
+    private boolean isAscii() {
+        if (ascii == 0) {
+            ascii = 1;
+            int p = utf8.position();
+            int e = utf8.limit();
+            for (int i = p; i < e; i++) {
+                if (utf8.get(i) < 0) {
+                    ascii = 2;
+                    break;
+                }
+            }
+        }
+        return ascii == 1;
+    }
+
+    @Override
+    public int length() {
+        if (str == null && isAscii()) {
+            return utf8.remaining();
+        }
+        return toString().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (str == null && isAscii()) {
+            if (index < 0 || index >= utf8.remaining()) {
+                throw new IndexOutOfBoundsException();
+            }
+            return (char) utf8.get(utf8.position() + index);
+        }
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (str == null && isAscii()) {
+            if (start < 0 || end > utf8.remaining() || start > end) {
+                throw new IndexOutOfBoundsException();
+            }
+            ByteBuffer s = utf8.duplicate();
+            s.position(utf8.position() + start);
+            s.limit(utf8.position() + end);
+            return new CBORText(s.slice());
+        }
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (str == null) {
+            str = StandardCharsets.UTF_8.decode(utf8.duplicate()).toString();
+        }
+        return str;
+    }
+
+    /**
+     * 同じ UTF-8 の CBORText と等しい.
+     *
+     * @param o 比較対象
+     * @return 等しい
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CBORText && utf8.equals(((CBORText) o).utf8);
+    }
+
+    @Override
+    public int hashCode() {
+        return utf8.hashCode();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.Calendar;
+
+/**
+ * 日時のタグ.
+ * tag 0 RFC 3339 文字列 OffsetDateTime
+ * tag 1 エポック秒 Instant, Calendar. 1秒未満があるときは浮動小数点でマイクロ秒程度に丸まる
+ * tag 100 RFC 8943 エポック日数 LocalDate
+ * tag 1004 RFC 8943 full-date 文字列 LocalDate
+ */
+final class CBORTime {
+
+    /**
+     * RFC 3339 date-time. 秒は省略しない. 1秒未満は必要な桁だけ.
+     * 不変なので共有する.
+     */
+    static final DateTimeFormatter RFC3339 = new DateTimeFormatterBuilder()
+            .parseCaseInsensitive()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE)
+            .appendLiteral('T')
+            .appendValue(ChronoField.HOUR_OF_DAY, 2)
+            .appendLiteral(':')
+            .appendValue(ChronoField.MINUTE_OF_HOUR, 2)
+            .appendLiteral(':')
+            .appendValue(ChronoField.SECOND_OF_MINUTE, 2)
+            .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+            .appendOffset("+HH:MM", "Z")
+            .toFormatter();
+
+    private CBORTime() {
+    }
+
+    /**
+     * tag 1 の中身.
+     *
+     * @param sec エポック秒
+     * @param nano 1秒未満 ナノ秒
+     * @return 整数 または 浮動小数点
+     */
+    static Object epoch(long sec, int nano) {
+        return nano == 0 ? (Object) sec : (Object) (sec + nano / 1e9);
+    }
+
+    static Object epoch(Instant t) {
+        return epoch(t.getEpochSecond(), t.getNano());
+    }
+
+    static Object epoch(Calendar cal) {
+        long ms = cal.getTimeInMillis();
+        return epoch(Math.floorDiv(ms, 1000), (int) Math.floorMod(ms, 1000) * 1000000);
+    }
+
+    static String format(OffsetDateTime t) {
+        return RFC3339.format(t);
+    }
+
+    static Object decodeDateTime(long tag, Object v) {
+        if (v instanceof CharSequence) {
+            try {
+                return OffsetDateTime.parse((CharSequence) v, RFC3339);
+            } catch (DateTimeException e) {
+                // そのまま
+            }
+        }
+        return new CBORTag(tag, v);
+    }
+
+    static Object decodeEpoch(long tag, Object v) {
+        try {
+            if (v instanceof Long) {
+                return Instant.ofEpochSecond((Long) v);
+            } else if (v instanceof Double || v instanceof Float) {
+                double d = ((Number) v).doubleValue();
+                if (Double.isFinite(d)) {
+                    double sec = Math.floor(d);
+                    return Instant.ofEpochSecond((long) sec, Math.round((d - sec) * 1e9));
+                }
+            }
+        } catch (DateTimeException e) {
+            // 範囲外
+        }
+        return new CBORTag(tag, v);
+    }
+
+    static Object decodeEpochDays(long tag, Object v) {
+        if (v instanceof Long) {
+            try {
+                return LocalDate.ofEpochDay((Long) v);
+            } catch (DateTimeException e) {
+                // 範囲外
+            }
+        }
+        return new CBORTag(tag, v);
+    }
+
+    static Object decodeFullDate(long tag, Object v) {
+        if (v instanceof CharSequence) {
+            try {
+                return LocalDate.parse((CharSequence) v, DateTimeFormatter.ISO_LOCAL_DATE);
+            } catch (DateTimeException e) {
+                // そのまま
+            }
+        }
+        return new CBORTag(tag, v);
+    }
+}
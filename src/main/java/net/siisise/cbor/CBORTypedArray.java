@@ -0,0 +1,186 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import net.siisise.lang.Binary16;
+
+/**
+ * RFC 8746 Typed Arrays. tag 64 - 87
+ * byte string を Java のプリミティブ配列にまとめて変換する.
+ * tag の下位5bit 0b f s e ll
+ * <pre>
+ * f  0: 整数 1: 浮動小数点
+ * s  整数のとき 符号付き
+ * e  0: big endian 1: little endian (uint8 は clamped)
+ * ll 0: 8bit (浮動小数点は16bit) 1: 16bit 2: 32bit 3: 64bit
+ * </pre>
+ * 符号なしは1つ大きい型で返す. uint64 は long のビット列のまま.
+ */
+class CBORTypedArray {
+
+    static final int UINT8 = 64;
+    static final int SINT16_BE = 73;
+    static final int SINT32_BE = 74;
+    static final int SINT64_BE = 75;
+    static final int FLOAT32_BE = 81;
+    static final int FLOAT64_BE = 82;
+    static final int FLOAT128_LE = 87;
+
+    /**
+     * 変換できる tag. 76 は予約, binary128 は Java の型がない.
+     *
+     * @param tag tag
+     * @return 変換できる
+     */
+    static boolean isTypedArray(long tag) {
+        return tag >= UINT8 && tag <= FLOAT128_LE && tag != 76 && (tag & 0x13) != 0x13;
+    }
+
+    /**
+     * byte string から配列.
+     *
+     * @param tag 64 - 87
+     * @param bin 中身
+     * @return プリミティブ配列. 対応しないものは null
+     */
+    static Object decode(int tag, ByteBuffer bin) {
+        int t = tag & 0x1f;
+        boolean fl = (t & 0x10) != 0;
+        boolean signed = (t & 0x08) != 0;
+        int ll = t & 0x03;
+        ByteBuffer b = bin.duplicate().order((fl || ll > 0) && (t & 0x04) != 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        int n = b.remaining() >> (fl ? ll + 1 : ll);
+        if (b.remaining() != n << (fl ? ll + 1 : ll)) {
+            throw new IllegalStateException("長さが要素の倍数ではない");
+        }
+        if (fl) {
+            switch (ll) {
+                case 0:
+                    float[] h = new float[n];
+                    for (int i = 0; i < n; i++) {
+                        h[i] = Binary16.binary16BitsToFloat(b.getShort());
+                    }
+                    return h;
+                case 1:
+                    float[] f = new float[n];
+                    b.asFloatBuffer().get(f);
+                    return f;
+                case 2:
+                    double[] d = new double[n];
+                    b.asDoubleBuffer().get(d);
+                    return d;
+                default: // binary128 はない
+                    return null;
+            }
+        }
+        switch (ll) {
+            case 0:
+                if (signed) {
+                    byte[] s8 = new byte[n];
+                    b.get(s8);
+                    return s8;
+                }
+                short[] u8 = new short[n];
+                for (int i = 0; i < n; i++) {
+                    u8[i] = (short) (b.get() & 0xff);
+                }
+                return u8;
+            case 1:
+                short[] s16 = new short[n];
+                b.asShortBuffer().get(s16);
+                if (signed) {
+                    return s16;
+                }
+                int[] u16 = new int[n];
+                for (int i = 0; i < n; i++) {
+                    u16[i] = s16[i] & 0xffff;
+                }
+                return u16;
+            case 2:
+                int[] s32 = new int[n];
+                b.asIntBuffer().get(s32);
+                if (signed) {
+                    return s32;
+                }
+                long[] u32 = new long[n];
+                for (int i = 0; i < n; i++) {
+                    u32[i] = s32[i] & 0xffffffffL;
+                }
+                return u32;
+            default:
+                long[] s64 = new long[n];
+                b.asLongBuffer().get(s64);
+                return s64;
+        }
+    }
+
+    /**
+     * 配列から byte string の中身. big endian.
+     *
+     * @param array short[], int[], long[], float[], double[]
+     * @return 中身. 対応しないものは null
+     */
+    static ByteBuffer encode(Object array) {
+        ByteBuffer b;
+        if (array instanceof long[]) {
+            long[] a = (long[]) array;
+            b = ByteBuffer.allocate(a.length * 8);
+            b.asLongBuffer().put(a);
+        } else if (array instanceof int[]) {
+            int[] a = (int[]) array;
+            b = ByteBuffer.allocate(a.length * 4);
+            b.asIntBuffer().put(a);
+        } else if (array instanceof short[]) {
+            short[] a = (short[]) array;
+            b = ByteBuffer.allocate(a.length * 2);
+            b.asShortBuffer().put(a);
+        } else if (array instanceof float[]) {
+            float[] a = (float[]) array;
+            b = ByteBuffer.allocate(a.length * 4);
+            b.asFloatBuffer().put(a);
+        } else if (array instanceof double[]) {
+            double[] a = (double[]) array;
+            b = ByteBuffer.allocate(a.length * 8);
+            b.asDoubleBuffer().put(a);
+        } else {
+            return null;
+        }
+        return b;
+    }
+
+    /**
+     * encode に対応する tag.
+     *
+     * @param array 配列
+     * @return tag. 対応しないものは -1
+     */
+    static int tag(Object array) {
+        if (array instanceof long[]) {
+            return SINT64_BE;
+        } else if (array instanceof int[]) {
+            return SINT32_BE;
+        } else if (array instanceof short[]) {
+            return SINT16_BE;
+        } else if (array instanceof float[]) {
+            return FLOAT32_BE;
+        } else if (array instanceof double[]) {
+            return FLOAT64_BE;
+        }
+        return -1;
+    }
+}
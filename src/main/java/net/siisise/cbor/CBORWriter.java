@@ -0,0 +1,926 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+import net.siisise.lang.Binary16;
+
+/**
+ * CBOR を出力先へ直接書く.
+ * ヘッダも中身も作業用の領域1つに書き, 溜まったら出力する.
+ * Packet を作らず, 入れ子ごとの写しもしない.
+ * 知らない型は CBORFormat で変換する.
+ * Iterator, Iterable (Path は除く), Stream, Flow.Publisher は不定長の配列として読みながら書く.
+ * スレッドセーフではない.
+ */
+public class CBORWriter implements Flushable, Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final WritableByteChannel ch;
+    /**
+     * ByteBuffer へ書くとき. 配列があればそこへ直接書く
+     */
+    private final ByteBuffer dst;
+    private final CBORFormat format;
+
+    private byte[] buf;
+    private int pos;
+    private int limit;
+
+    /**
+     * stringref の表. write(Object) の中だけ
+     */
+    private Map<Object, Long> refs;
+    /**
+     * 値の共有. write(Object) の中だけ
+     */
+    private CBORSharing sharing;
+
+    public CBORWriter(OutputStream out) {
+        this(out, new CBORFormat());
+    }
+
+    /**
+     *
+     * @param out 出力先
+     * @param format 設定と知らない型の変換
+     */
+    public CBORWriter(OutputStream out, CBORFormat format) {
+        this.out = out;
+        ch = null;
+        dst = null;
+        this.format = format;
+        buf = new byte[BUFFER_SIZE];
+        limit = buf.length;
+    }
+
+    public CBORWriter(WritableByteChannel ch) {
+        this(ch, new CBORFormat());
+    }
+
+    /**
+     *
+     * @param ch 出力先
+     * @param format 設定と知らない型の変換
+     */
+    public CBORWriter(WritableByteChannel ch, CBORFormat format) {
+        out = null;
+        this.ch = ch;
+        dst = null;
+        this.format = format;
+        buf = new byte[BUFFER_SIZE];
+        limit = buf.length;
+    }
+
+    /**
+     * メモリ上に書く. 足りなくなったら大きくする.
+     *
+     * @param scratch 作業用の領域. CBORBufferPool から借りたものなど
+     * @param format 設定と知らない型の変換
+     */
+    CBORWriter(byte[] scratch, CBORFormat format) {
+        out = null;
+        ch = null;
+        dst = null;
+        this.format = format;
+        buf = scratch;
+        limit = buf.length;
+    }
+
+    public CBORWriter(ByteBuffer dst) {
+        this(dst, new CBORFormat());
+    }
+
+    /**
+     * ByteBuffer へ書く.
+     * position は flush で進む. 入りきらないときは BufferOverflowException.
+     *
+     * @param dst 出力先
+     * @param format 設定と知らない型の変換
+     */
+    public CBORWriter(ByteBuffer dst, CBORFormat format) {
+        out = null;
+        ch = null;
+        this.dst = dst;
+        this.format = format;
+        if (dst.hasArray() && !dst.isReadOnly()) {
+            buf = dst.array();
+            pos = dst.arrayOffset() + dst.position();
+            limit = dst.arrayOffset() + dst.limit();
+        } else {
+            buf = new byte[BUFFER_SIZE];
+            limit = buf.length;
+        }
+    }
+
+    /**
+     * 作業用の領域を出力する.
+     */
+    private void drain() throws IOException {
+        if (out != null) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        } else if (ch != null) {
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, pos);
+            while (bb.hasRemaining()) {
+                ch.write(bb);
+            }
+            pos = 0;
+        } else if (dst == null) { // メモリ上
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, 64));
+            limit = buf.length;
+        } else if (buf == dstArray()) {
+            dst.position(pos - dst.arrayOffset());
+        } else {
+            dst.put(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    private byte[] dstArray() {
+        return dst.hasArray() && !dst.isReadOnly() ? dst.array() : null;
+    }
+
+    private void ensure(int n) throws IOException {
+        if (limit - pos < n) {
+            drain();
+            if (limit - pos < n) {
+                throw new BufferOverflowException();
+            }
+        }
+    }
+
+    /**
+     * 先頭バイトと引数.
+     *
+     * @param major 0 - 7
+     * @param arg 符号なしの引数. -1 は major 2-5 で不定長
+     * @throws IOException 出力エラー
+     */
+    void head(int major, long arg) throws IOException {
+        ensure(9);
+        int m = major << 5;
+        if (arg == -1 && major >= 2 && major <= 5) {
+            buf[pos++] = (byte) (m | 31);
+        } else if (arg >= 0 && arg < 24) {
+            buf[pos++] = (byte) (m | arg);
+        } else if (arg >= 0 && arg < 0x100) {
+            buf[pos++] = (byte) (m | 24);
+            buf[pos++] = (byte) arg;
+        } else if (arg >= 0 && arg < 0x10000) {
+            buf[pos++] = (byte) (m | 25);
+            put(arg, 2);
+        } else if (arg >= 0 && arg < 0x100000000L) {
+            buf[pos++] = (byte) (m | 26);
+            put(arg, 4);
+        } else {
+            buf[pos++] = (byte) (m | 27);
+            put(arg, 8);
+        }
+    }
+
+    /**
+     * big endian.
+     */
+    private void put(long v, int len) {
+        for (int i = (len - 1) * 8; i >= 0; i -= 8) {
+            buf[pos++] = (byte) (v >>> i);
+        }
+    }
+
+    private void raw(byte[] data, int offset, int length) throws IOException {
+        if (limit - pos < length) {
+            drain();
+            if (limit - pos < length && out != null) { // 大きいものは直接
+                out.write(data, offset, length);
+                return;
+            }
+        }
+        while (length > 0) {
+            if (pos == limit) {
+                drain();
+                if (pos == limit) {
+                    throw new BufferOverflowException();
+                }
+            }
+            int n = Math.min(length, limit - pos);
+            System.arraycopy(data, offset, buf, pos, n);
+            pos += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * 配列の始まり.
+     *
+     * @param len 要素数. -1 は不定長
+     * @throws IOException 出力エラー
+     */
+    public void startArray(long len) throws IOException {
+        head(4, len);
+    }
+
+    /**
+     * Map の始まり.
+     *
+     * @param len 組の数. -1 は不定長
+     * @throws IOException 出力エラー
+     */
+    public void startMap(long len) throws IOException {
+        head(5, len);
+    }
+
+    /**
+     * 不定長の終わり.
+     *
+     * @throws IOException 出力エラー
+     */
+    public void end() throws IOException {
+        ensure(1);
+        buf[pos++] = (byte) 0xff;
+    }
+
+    /**
+     * タグ. 次の値にかかる.
+     *
+     * @param tag タグ番号
+     * @throws IOException 出力エラー
+     */
+    public void tag(long tag) throws IOException {
+        head(6, tag);
+    }
+
+    public void writeNull() throws IOException {
+        head(7, 22);
+    }
+
+    public void writeUndefined() throws IOException {
+        head(7, 23);
+    }
+
+    public void writeBoolean(boolean b) throws IOException {
+        head(7, b ? 21 : 20);
+    }
+
+    /**
+     * 整数 major 0, 1.
+     *
+     * @param v 値
+     * @throws IOException 出力エラー
+     */
+    public void writeInt(long v) throws IOException {
+        if (v >= 0) {
+            head(0, v);
+        } else {
+            head(1, -1 - v);
+        }
+    }
+
+    /**
+     * 浮動小数点. 値が変わらなければ短くする.
+     *
+     * @param d 値
+     * @throws IOException 出力エラー
+     */
+    public void writeDouble(double d) throws IOException {
+        float f = (float) d;
+        if (Double.doubleToLongBits(d) == Double.doubleToLongBits(f)) {
+            writeFloat(f);
+        } else {
+            ensure(9);
+            buf[pos++] = (byte) 0xfb;
+            put(Double.doubleToRawLongBits(d), 8);
+        }
+    }
+
+    /**
+     * 浮動小数点. 値が変わらなければ binary16 にする.
+     *
+     * @param f 値
+     * @throws IOException 出力エラー
+     */
+    public void writeFloat(float f) throws IOException {
+        short h = Binary16.FloatToBinary16bits(f);
+        ensure(5);
+        if (Float.floatToIntBits(f) == Float.floatToIntBits(Binary16.binary16BitsToFloat(h))) {
+            buf[pos++] = (byte) 0xf9;
+            put(h, 2);
+        } else {
+            buf[pos++] = (byte) 0xfa;
+            put(Float.floatToRawIntBits(f), 4);
+        }
+    }
+
+    /**
+     * 64bit に収まるものは major 0, 1. 収まらないものは tag 2, 3.
+     *
+     * @param bi 値
+     * @throws IOException 出力エラー
+     */
+    private void writeBigInteger(BigInteger bi) throws IOException {
+        int flag = bi.signum() < 0 ? 1 : 0;
+        if (flag != 0) {
+            bi = bi.not(); // -1 - n
+        }
+        if (bi.bitLength() <= 64) { // 符号なしで収まる
+            head(flag, bi.longValue());
+        } else {
+            tag(CBORTag.POSITIVE_BIGNUM + flag);
+            writeBytes(magnitude(bi));
+        }
+    }
+
+    /**
+     * bignum の中身. 符号のための先頭の 0 は付けない.
+     *
+     * @param bi 0以上
+     * @return big endian
+     */
+    static byte[] magnitude(BigInteger bi) {
+        byte[] b = bi.toByteArray();
+        return b.length > 1 && b[0] == 0 ? Arrays.copyOfRange(b, 1, b.length) : b;
+    }
+
+    /**
+     * 数値.
+     *
+     * @param num 数値
+     * @throws IOException 出力エラー
+     */
+    public void writeNumber(Number num) throws IOException {
+        if (num instanceof Long || num instanceof Integer || num instanceof Short || num instanceof Byte) {
+            writeInt(num.longValue());
+        } else if (num instanceof Double) {
+            writeDouble(num.doubleValue());
+        } else if (num instanceof Float) {
+            writeFloat(num.floatValue());
+        } else if (num instanceof Binary16) {
+            short h = ((Binary16) num).binary16Value();
+            ensure(3);
+            buf[pos++] = (byte) 0xf9;
+            put(Binary16.binary16ToShortBits(h), 2);
+        } else if (num instanceof BigInteger) {
+            writeBigInteger((BigInteger) num);
+        } else if (num instanceof BigDecimal) {
+            // tag 4 [指数, 仮数]
+            BigDecimal bd = (BigDecimal) num;
+            tag(CBORTag.DECIMAL_FRACTION);
+            startArray(2);
+            writeInt(-(long) bd.scale());
+            writeBigInteger(bd.unscaledValue());
+        } else {
+            other(num);
+        }
+    }
+
+    /**
+     * text string.
+     * UTF-8 へ直接変換する.
+     *
+     * @param str 文字列
+     * @throws IOException 出力エラー
+     */
+    public void writeString(CharSequence str) throws IOException {
+        int len = str.length();
+        long utf8 = utf8Length(str);
+        if (reference(str.toString(), utf8)) {
+            return;
+        }
+        head(3, utf8);
+        for (int i = 0; i < len; i++) {
+            if (limit - pos < 4) {
+                ensure(4);
+            }
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, str.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | (cp >> 18));
+                buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xe0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * UTF-8 のバイト数. String.getBytes と同じく対のないサロゲートは ? にする.
+     *
+     * @param str 文字列
+     * @return バイト数
+     */
+    static long utf8Length(CharSequence str) {
+        int len = str.length();
+        long utf8 = len;
+        for (int i = 0; i < len; i++) {
+            char c = str.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    utf8++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    utf8 += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    utf8 += 2;
+                } // 対のないサロゲートは ? の1バイト
+            }
+        }
+        return utf8;
+    }
+
+    /**
+     * 先頭バイトと引数の長さ.
+     *
+     * @param arg 符号なしの引数. -1 は不定長
+     * @return バイト数
+     */
+    static int headSize(long arg) {
+        if (arg >= -1 && arg < 24) {
+            return 1;
+        } else if (arg >= 0 && arg < 0x100) {
+            return 2;
+        } else if (arg >= 0 && arg < 0x10000) {
+            return 3;
+        } else if (arg >= 0 && arg < 0x100000000L) {
+            return 5;
+        }
+        return 9;
+    }
+
+    /**
+     * 浮動小数点を binary16 にできるか. writeFloat と同じ判定.
+     */
+    static boolean isHalf(float f) {
+        short h = Binary16.FloatToBinary16bits(f);
+        return Float.floatToIntBits(f) == Float.floatToIntBits(Binary16.binary16BitsToFloat(h));
+    }
+
+    /**
+     * byte string.
+     *
+     * @param data 中身
+     * @throws IOException 出力エラー
+     */
+    public void writeBytes(byte[] data) throws IOException {
+        writeBytes(data, 0, data.length);
+    }
+
+    /**
+     * byte string.
+     *
+     * @param data 中身
+     * @param offset 位置
+     * @param length 長さ
+     * @throws IOException 出力エラー
+     */
+    public void writeBytes(byte[] data, int offset, int length) throws IOException {
+        if (refs != null && reference(ByteBuffer.wrap(data, offset, length).slice(), length)) {
+            return;
+        }
+        head(2, length);
+        raw(data, offset, length);
+    }
+
+    /**
+     * stringref の表にあれば参照を書く. なければ表に入れる.
+     *
+     * @param key String または ByteBuffer
+     * @param len 符号化したバイト数
+     * @return 参照を書いた
+     */
+    private boolean reference(Object key, long len) throws IOException {
+        if (refs == null) {
+            return false;
+        }
+        Long index = refs.get(key);
+        if (index != null) {
+            tag(CBORTag.STRINGREF);
+            head(0, index);
+            return true;
+        }
+        long next = refs.size();
+        if (CBORFormat.stringRefWorth(next, len)) {
+            refs.put(key, next);
+        }
+        return false;
+    }
+
+    /**
+     * 1要素書く.
+     * CBORFormat の stringref が有効なときは tag 256 で囲む.
+     * 値の共有が有効なときは先に全体をたどる.
+     *
+     * @param obj 値
+     * @throws IOException 出力エラー
+     */
+    public void write(Object obj) throws IOException {
+        format.checkDeterministic();
+        refs = format.isStringRef() ? new HashMap<>() : null;
+        sharing = format.isValueSharing() ? new CBORSharing(obj, format.tags()) : null;
+        try {
+            if (refs != null) {
+                tag(CBORTag.STRINGREF_NAMESPACE);
+            }
+            value(obj);
+        } finally {
+            refs = null;
+            sharing = null;
+        }
+    }
+
+    private void value(Object obj) throws IOException {
+        if (sharing != null) {
+            Long index = sharing.reference(obj);
+            if (index != null) {
+                tag(CBORTag.SHARED_REF);
+                head(0, index);
+                return;
+            } else if (sharing.share(obj)) {
+                tag(CBORTag.SHAREABLE);
+            }
+            // Bean は数えたときの Map にする
+            Map<?, ?> bean = sharing.properties(obj);
+            if (bean != null) {
+                writeMap(bean);
+                return;
+            }
+        }
+        if (obj == null) {
+            writeNull();
+            return;
+        }
+        CBORTags.Encoding enc = format.tags().encoding(obj.getClass());
+        if (enc != null) {
+            tag(enc.tag);
+            value(enc.encoder.encode(obj));
+        } else if (obj instanceof Boolean) {
+            writeBoolean((Boolean) obj);
+        } else if (obj instanceof Number) {
+            writeNumber((Number) obj);
+        } else if (obj instanceof CharSequence) {
+            writeString((CharSequence) obj);
+        } else if (obj instanceof byte[]) {
+            writeBytes((byte[]) obj);
+        } else if (obj instanceof char[]) {
+            writeString(String.valueOf((char[]) obj));
+        } else if (obj instanceof Map) {
+            writeMap((Map<?, ?>) obj);
+        } else if (obj instanceof Collection) {
+            Collection<?> col = (Collection) obj;
+            startArray(col.size());
+            for (Object v : col) {
+                value(v);
+            }
+        } else if (obj instanceof Object[]) {
+            Object[] array = (Object[]) obj;
+            startArray(array.length);
+            for (Object v : array) {
+                value(v);
+            }
+        } else if (obj instanceof Iterator) {
+            writeArray((Iterator) obj);
+        } else if (isIterable(obj)) {
+            writeArray(((Iterable) obj).iterator());
+        } else if (obj instanceof Stream) {
+            try (Stream<?> s = (Stream) obj) {
+                writeArray(s.iterator());
+            }
+        } else if (obj instanceof Flow.Publisher) {
+            writeArray((Flow.Publisher) obj);
+        } else if (obj instanceof CBORRaw) {
+            writeRaw((CBORRaw) obj);
+        } else if (obj instanceof CBORTag) {
+            CBORTag t = (CBORTag) obj;
+            tag(t.tag().longValue());
+            value(t.value());
+        } else {
+            ByteBuffer typed = CBORTypedArray.encode(obj);
+            if (typed != null) {
+                tag(CBORTypedArray.tag(obj));
+                writeBytes(typed.array(), 0, typed.limit());
+            } else {
+                other(obj);
+            }
+        }
+    }
+
+    /**
+     * 符号化済みのものをそのまま書く.
+     * stringref の中では表がずれないよう tag 256 で区切る.
+     *
+     * @param raw 符号化済み
+     * @throws IOException 出力エラー
+     */
+    public void writeRaw(CBORRaw raw) throws IOException {
+        byte[] data = raw.data();
+        if (raw.isEmbedded()) {
+            tag(CBORTag.ENCODED_CBOR);
+            writeBytes(data);
+        } else {
+            if (refs != null) {
+                tag(CBORTag.STRINGREF_NAMESPACE);
+            }
+            raw(data, 0, data.length);
+        }
+    }
+
+    /**
+     * 要素数のわからないものを不定長の配列にする.
+     *
+     * @param it 要素
+     * @throws IOException 出力エラー
+     */
+    public void writeArray(Iterator<?> it) throws IOException {
+        if (format.isDeterministic()) { // 不定長は使わない
+            List<Object> list = new ArrayList<>();
+            it.forEachRemaining(list::add);
+            value(list);
+            return;
+        }
+        startArray(-1);
+        while (it.hasNext()) {
+            value(it.next());
+        }
+        end();
+    }
+
+    /**
+     * 要素数のわからないものを不定長の Map にする.
+     *
+     * @param it 組
+     * @throws IOException 出力エラー
+     */
+    public void writeMap(Iterator<? extends Map.Entry<?, ?>> it) throws IOException {
+        if (format.isDeterministic()) { // 不定長は使わない
+            Map<Object, Object> map = new LinkedHashMap<>();
+            it.forEachRemaining(e -> map.put(e.getKey(), e.getValue()));
+            writeMap(map);
+            return;
+        }
+        startMap(-1);
+        while (it.hasNext()) {
+            Map.Entry<?, ?> e = it.next();
+            value(e.getKey());
+            value(e.getValue());
+        }
+        end();
+    }
+
+    /**
+     * Map. 決定的な符号化のときはキーを符号化したバイト列の順に並べる.
+     *
+     * @param map Map
+     * @throws IOException 出力エラー
+     */
+    private void writeMap(Map<?, ?> map) throws IOException {
+        startMap(map.size());
+        if (map instanceof CBORIntMap && ((CBORIntMap) map).intOnly()) { // もともと決定的な順
+            CBORIntMap im = (CBORIntMap) map;
+            int n = im.size();
+            int zero = im.zero();
+            for (int i = 0; i < n; i++) {
+                int j = im.encodeIndex(i, zero);
+                writeInt(im.keyAt(j));
+                value(im.valueAt(j));
+            }
+            return;
+        } else if (!format.isDeterministic()) {
+            for (Map.Entry e : map.entrySet()) {
+                value(e.getKey());
+                value(e.getValue());
+            }
+            return;
+        }
+        int n = map.size();
+        byte[][] keys = new byte[n][];
+        Object[] values = new Object[n];
+        Integer[] order = new Integer[n];
+        CBORWriter keyWriter = new CBORWriter(new byte[64], format);
+        int i = 0;
+        for (Map.Entry e : map.entrySet()) {
+            keyWriter.pos = 0;
+            keyWriter.value(e.getKey());
+            keys[i] = keyWriter.toByteArray();
+            values[i] = e.getValue();
+            order[i] = i++;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
+        for (i = 0; i < n; i++) {
+            if (i > 0 && Arrays.equals(keys[order[i - 1]], keys[order[i]])) {
+                throw new IllegalStateException("キーが重複");
+            }
+            raw(keys[order[i]], 0, keys[order[i]].length);
+            value(values[order[i]]);
+        }
+    }
+
+    /**
+     * Publisher の要素を不定長の配列にする.
+     * 1つずつ要求して書き, 完了するまで待つ.
+     * 決定的な符号化のときは全部受け取ってから定長で書く.
+     *
+     * @param publisher 要素
+     * @throws IOException 出力エラー
+     */
+    public void writeArray(Flow.Publisher<?> publisher) throws IOException {
+        if (format.isDeterministic()) {
+            List<Object> list = new ArrayList<>();
+            subscribe(publisher, list::add);
+            value(list);
+        } else {
+            startArray(-1);
+            subscribe(publisher, this::value);
+            end();
+        }
+    }
+
+    /**
+     * Publisher の要素を受け取る処理.
+     */
+    @FunctionalInterface
+    interface ItemHandler {
+
+        void accept(Object item) throws IOException;
+    }
+
+    /**
+     * 1つずつ要求して受け取り, 完了するまで待つ.
+     *
+     * @param publisher 要素
+     * @param handler 要素ごとの処理
+     * @throws IOException 処理, Publisher のエラー
+     */
+    static void subscribe(Flow.Publisher<?> publisher, ItemHandler handler) throws IOException {
+        CountDownLatch done = new CountDownLatch(1);
+        Throwable[] error = new Throwable[1];
+        publisher.subscribe(new Flow.Subscriber<Object>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription = s;
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(Object item) {
+                if (error[0] != null) { // cancel 後
+                    return;
+                }
+                try {
+                    handler.accept(item);
+                    subscription.request(1);
+                } catch (IOException | RuntimeException e) {
+                    error[0] = e;
+                    subscription.cancel();
+                    done.countDown();
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                error[0] = e;
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException();
+        }
+        if (error[0] instanceof IOException) {
+            throw (IOException) error[0];
+        } else if (error[0] != null) {
+            throw new IOException(error[0]);
+        }
+    }
+
+    /**
+     * 要素数のわからない型か.
+     *
+     * @param obj 値
+     * @return Iterator, Collection と Path 以外の Iterable, Stream, Flow.Publisher
+     */
+    static boolean isStream(Object obj) {
+        return obj instanceof Iterator || isIterable(obj) || obj instanceof Stream || obj instanceof Flow.Publisher;
+    }
+
+    /**
+     * 不定長の配列にする Iterable.
+     * Path は要素も Path なので終わらない. Rebind に任せる.
+     *
+     * @param obj 値
+     * @return Collection, Path 以外の Iterable
+     */
+    static boolean isIterable(Object obj) {
+        return obj instanceof Iterable && !(obj instanceof Collection) && !(obj instanceof Path);
+    }
+
+    /**
+     * 知らない型は CBORFormat で変換して写す.
+     * stringref の表, 値の共有はこちらと同じものを使う.
+     */
+    private void other(Object obj) throws IOException {
+        byte[] data = format.document(refs, sharing).item(obj).toByteArray();
+        raw(data, 0, data.length);
+    }
+
+    /**
+     * メモリ上に書いたもの.
+     *
+     * @return 写し
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * 作業用の領域. 大きくしたときは元のものと変わる.
+     *
+     * @return 領域
+     */
+    byte[] buffer() {
+        return buf;
+    }
+
+    int size() {
+        return pos;
+    }
+
+    /**
+     * ByteBuffer のときは position を進める.
+     *
+     * @throws IOException 出力エラー
+     */
+    @Override
+    public void flush() throws IOException {
+        if (out != null || ch != null || dst != null) {
+            drain();
+        }
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (out != null) {
+            out.close();
+        } else if (ch != null) {
+            ch.close();
+        }
+    }
+}
@@ -22,6 +22,11 @@ import net.siisise.bind.Rebind;
  */
 public class YAML {
 
+    /**
+     * 状態を持たないので共有する
+     */
+    private static final YAMLFormat FORMAT = new YAMLFormat();
+
     public static YAML load() {
         throw new UnsupportedOperationException();
     }
@@ -41,6 +46,6 @@ public class YAML {
     }
 
     public String build(Object obj) {
-        return Rebind.valueOf(obj, new YAMLFormat());
+        return Rebind.valueOf(obj, FORMAT);
     }
 }
@@ -222,6 +222,37 @@ public class CBORFormatTest {
         assertArrayEquals(expResult.toByteArray(), result.toByteArray());
     }
 
+    /**
+     * Test of arrayFormat method, of class CBORFormat.
+     * RFC 8746 Typed Arrays
+     */
+    @Test
+    public void testArrayFormat() {
+        System.out.println("arrayFormat");
+        CBORFormat instance = new CBORFormat();
+        double[] d = {1.5, -2.0};
+        byte[] expResult = Bin.toByteArray("d852503ff8000000000000c000000000000000");
+        byte[] result = instance.arrayFormat(d).toByteArray();
+        assertArrayEquals(expResult, result);
+        assertArrayEquals(d, (double[]) CBOR.parse(result));
+
+        long[] l = {1, -1, Long.MAX_VALUE};
+        assertArrayEquals(l, (long[]) CBOR.parse(instance.arrayFormat(l).toByteArray()));
+        int[] i = {7, -7};
+        assertArrayEquals(i, (int[]) CBOR.parse(instance.arrayFormat(i).toByteArray()));
+        float[] f = {0.25f};
+        assertArrayEquals(f, (float[]) CBOR.parse(instance.arrayFormat(f).toByteArray()));
+
+        // uint16 little endian
+        assertArrayEquals(new int[] {1, 0xffff}, (int[]) CBOR.parse(Bin.toByteArray("d845440100ffff")));
+        // float16 big endian
+        assertArrayEquals(new float[] {1.0f}, (float[]) CBOR.parse(Bin.toByteArray("d850423c00")));
+        // float16 little endian
+        float[] h = (float[]) CBOR.parse(Bin.toByteArray("d85444003e00c0"));
+        assertArrayEquals(new float[] {1.5f, -2.0f}, h);
+        assertArrayEquals(h, (float[]) CBOR.parse(instance.arrayFormat(h).toByteArray()));
+    }
+
     /**
      * Test of byteArrayFormat method, of class CBORFormat.
      */
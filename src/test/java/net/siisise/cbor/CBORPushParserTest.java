@@ -0,0 +1,90 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import net.siisise.lang.Bin;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ */
+public class CBORPushParserTest {
+
+    /**
+     * 1バイトずつ渡しても同じ結果になる.
+     * [1, [2, 3], [_ 4, 5]], {"a": 1, "b": [2, 3]}, (_ "strea", "ming")
+     */
+    @Test
+    public void testFeed() {
+        System.out.println("feed");
+        byte[] src = Bin.toByteArray("8301820203" + "9f0405ff" + "a26161016162820203" + "7f657374726561646d696e67ff");
+        CBORPushParser parser = new CBORPushParser();
+        List<Object> result = new ArrayList<>();
+        for (byte b : src) {
+            parser.feed(ByteBuffer.wrap(new byte[] {b}), result::add);
+        }
+        assertFalse(parser.isPartial());
+        assertEquals(3, result.size());
+        assertEquals(Arrays.asList(1L, Arrays.asList(2L, 3L), Arrays.asList(4L, 5L)), result.get(0));
+        Map map = (Map) result.get(1);
+        assertEquals(1L, map.get("a"));
+        assertEquals("streaming", result.get(2));
+    }
+
+    /**
+     * non-blocking の Pipe 経由.
+     */
+    @Test
+    public void testChannel() throws IOException {
+        System.out.println("channel");
+        byte[] src = Bin.toByteArray("5818" + "000102030405060708090a0b0c0d0e0f1011121314151617" + "c11a514b67b0");
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        CBORPushParser parser = new CBORPushParser();
+        List<Object> result = new ArrayList<>();
+        ByteBuffer buf = ByteBuffer.allocate(16);
+
+        pipe.sink().write(ByteBuffer.wrap(src, 0, 10));
+        while (pipe.source().read(buf) > 0) {
+            buf.flip();
+            parser.feed(buf, result::add);
+            buf.clear();
+        }
+        assertTrue(parser.isPartial());
+        assertEquals(0, result.size());
+
+        pipe.sink().write(ByteBuffer.wrap(src, 10, src.length - 10));
+        while (pipe.source().read(buf) > 0) {
+            buf.flip();
+            parser.feed(buf, result::add);
+            buf.clear();
+        }
+        pipe.sink().close();
+        pipe.source().close();
+        assertFalse(parser.isPartial());
+        assertEquals(2, result.size());
+        assertEquals(24, ((byte[]) result.get(0)).length);
+        assertEquals(java.time.Instant.ofEpochSecond(1363896240), result.get(1));
+    }
+}
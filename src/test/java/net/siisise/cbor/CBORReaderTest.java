@@ -0,0 +1,122 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import net.siisise.cbor.CBORReader.Event;
+import net.siisise.lang.Bin;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RFC 8949 Appendix A の例.
+ */
+public class CBORReaderTest {
+
+    /**
+     * 整数と浮動小数点.
+     */
+    @Test
+    public void testNumber() {
+        System.out.println("number");
+        CBORReader reader = new CBORReader(Bin.toByteArray("1903e8"));
+        assertEquals(Event.INT, reader.next());
+        assertEquals(1000, reader.longValue());
+        assertEquals(Event.EOF, reader.next());
+
+        reader = new CBORReader(Bin.toByteArray("3903e7"));
+        assertEquals(Event.INT, reader.next());
+        assertEquals(-1000, reader.longValue());
+
+        reader = new CBORReader(Bin.toByteArray("fb3ff199999999999a"));
+        assertEquals(Event.FLOAT, reader.next());
+        assertEquals(1.1, reader.doubleValue());
+
+        reader = new CBORReader(Bin.toByteArray("f93c00"));
+        assertEquals(Event.FLOAT, reader.next());
+        assertEquals(1.0, reader.doubleValue());
+    }
+
+    /**
+     * 定長の配列, Map.
+     * [1, [2, 3]], {"a": "b"}
+     */
+    @Test
+    public void testDefinite() {
+        System.out.println("definite");
+        CBORReader reader = new CBORReader(Bin.toByteArray("8201820203a161616162"));
+        assertEquals(Event.START_ARRAY, reader.next());
+        assertEquals(2, reader.length());
+        assertEquals(Event.INT, reader.next());
+        assertEquals(Event.START_ARRAY, reader.next());
+        assertEquals(Event.INT, reader.next());
+        assertEquals(2, reader.longValue());
+        assertEquals(Event.INT, reader.next());
+        assertEquals(Event.BREAK, reader.next());
+        assertEquals(Event.BREAK, reader.next());
+        // 配列の後ろに続く Map
+        assertEquals(Event.START_MAP, reader.next());
+        assertEquals(Event.TEXT, reader.next());
+        assertEquals("a", reader.stringValue());
+        assertEquals(Event.TEXT, reader.next());
+        assertEquals("b", reader.stringValue());
+        assertEquals(Event.BREAK, reader.next());
+        assertEquals(Event.EOF, reader.next());
+    }
+
+    /**
+     * 不定長.
+     * [_ 1, [2, 3], [_ 4, 5]] と (_ h'0102', h'030405')
+     */
+    @Test
+    public void testIndefinite() {
+        System.out.println("indefinite");
+        CBORReader reader = new CBORReader(Bin.toByteArray("9f018202039f0405ffff5f42010243030405ff"));
+        assertEquals(Event.START_ARRAY, reader.next());
+        assertEquals(-1, reader.length());
+        assertEquals(Event.INT, reader.next());
+        assertEquals(Event.START_ARRAY, reader.next());
+        reader.skip();
+        assertEquals(1, reader.depth());
+        assertEquals(Event.START_ARRAY, reader.next());
+        assertEquals(Event.INT, reader.next());
+        assertEquals(4, reader.longValue());
+        assertEquals(Event.INT, reader.next());
+        assertEquals(Event.BREAK, reader.next());
+        assertEquals(Event.BREAK, reader.next());
+        assertEquals(Event.BYTES, reader.next());
+        assertArrayEquals(Bin.toByteArray("0102030405"), reader.bytesValue());
+        assertEquals(Event.EOF, reader.next());
+    }
+
+    /**
+     * タグと読み飛ばし.
+     * 1(1363896240), {"a": 1, "b": [2, 3]}, "c"
+     */
+    @Test
+    public void testSkip() {
+        System.out.println("skip");
+        CBORReader reader = new CBORReader(Bin.toByteArray("c11a514b67b0a261610161628202036163"));
+        assertEquals(Event.TAG, reader.next());
+        assertEquals(1, reader.tag());
+        reader.skip();
+        assertEquals(Event.START_MAP, reader.next());
+        reader.skip();
+        assertEquals(0, reader.depth());
+        assertEquals(Event.TEXT, reader.next());
+        // 読まずに次へ
+        assertEquals(Event.EOF, reader.next());
+    }
+}
@@ -0,0 +1,1017 @@
+/*
+ * Copyright 2026 okome.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.siisise.cbor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.siisise.lang.Bin;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ */
+public class CBORTest {
+
+    /**
+     * Test of sequence method, of class CBOR.
+     */
+    @Test
+    public void testSequence() throws IOException {
+        System.out.println("sequence");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CBORSequenceWriter writer = new CBORSequenceWriter(out);
+        writer.write("a");
+        writer.write(null);
+        writer.write(Arrays.asList(1, 2));
+        writer.write(100);
+        writer.close();
+        byte[] bin = out.toByteArray();
+        assertArrayEquals(Bin.toByteArray("6161f68201021864"), bin);
+
+        List<Object> result;
+        try (Stream<Object> s = CBOR.sequence(new ByteArrayInputStream(bin))) {
+            result = s.collect(Collectors.toList());
+        }
+        assertEquals(Arrays.asList("a", null, Arrays.asList(1L, 2L), 100L), result);
+
+        // 小さいバッファで読み直し
+        CBORSequenceReader reader = new CBORSequenceReader(Channels.newChannel(new ByteArrayInputStream(bin)), 3);
+        int count = 0;
+        while (reader.hasNext()) {
+            assertEquals(result.get(count++), reader.next());
+        }
+        assertEquals(4, count);
+    }
+
+    /**
+     * Test of parse method, of class CBOR. ByteBuffer
+     * {"a": h'010203', "b": ["xyz", (_ "ab", "o")]}
+     */
+    @Test
+    public void testParseByteBuffer() {
+        System.out.println("parse ByteBuffer");
+        byte[] src = Bin.toByteArray("a26161430102036162826378797a7f626162616fff");
+        ByteBuffer buf = ByteBuffer.allocateDirect(src.length + 1);
+        buf.put(src).put((byte) 0xf6).flip();
+        Map map = (Map) CBOR.parse(buf);
+        assertEquals(src.length, buf.position());
+        ByteBuffer bin = (ByteBuffer) map.get("a");
+        assertTrue(bin.isReadOnly());
+        assertEquals(ByteBuffer.wrap(Bin.toByteArray("010203")), bin);
+        List list = (List) map.get("b");
+        CharSequence text = (CharSequence) list.get(0);
+        assertEquals(3, text.length());
+        assertEquals('y', text.charAt(1));
+        assertEquals("xyz", text.toString());
+        assertEquals("abo", list.get(1).toString());
+        assertNull(CBOR.parse(buf));
+    }
+
+    /**
+     * Test of parse method, of class CBORLazy.
+     * {"a": 1, "b": [_ 2, {"c": "d"}], "e": h'00'}
+     */
+    @Test
+    public void testLazy() {
+        System.out.println("lazy");
+        byte[] src = Bin.toByteArray("a36161016162" + "9f02a161636164ff" + "61654100");
+        Map map = (Map) CBORLazy.parse(src);
+        assertEquals(3, map.size());
+        assertEquals(1L, map.get("a"));
+        List list = (List) map.get("b");
+        assertSame(list, map.get("b"));
+        assertEquals(2, list.size());
+        assertEquals("d", ((Map) list.get(1)).get("c"));
+        assertArrayEquals(new byte[1], (byte[]) map.get("e"));
+        assertNull(map.get("z"));
+        assertEquals(((Map) CBOR.parse(src)).get("b"), list);
+    }
+
+    /**
+     * Test of index method, of class CBORTape.
+     * {"a": [1, [_ 2, 3], "x"], "b": 24(h'00')}, 7
+     */
+    @Test
+    public void testTape() throws IOException {
+        System.out.println("tape");
+        byte[] src = Bin.toByteArray("a2616183019f0203ff6178" + "6162d8184100" + "07");
+        CBORTape tape = CBORTape.index(ByteBuffer.wrap(src));
+        assertEquals(2, tape.count());
+        assertEquals(7L, tape.item(1).value());
+        CBORTape.Node root = tape.root();
+        assertEquals(5, root.major());
+        assertEquals(2, root.size());
+        CBORTape.Node a = root.get("a");
+        assertEquals(3, a.size());
+        assertEquals("x", a.child(2).value());
+        assertEquals(Arrays.asList(2L, 3L), a.child(1).value());
+        assertEquals(3L, a.child(1).child(1).value());
+        assertEquals("b", root.key(1).value());
+        assertEquals(24, root.get("b").arg());
+        assertNull(root.get("c"));
+
+        Path tmp = Files.createTempFile("cbor", ".cbor");
+        try {
+            Files.write(tmp, src);
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.READ)) {
+                tape = CBORTape.index(ch);
+                assertEquals("x", tape.root().get("a").child(2).value());
+                assertEquals(13, tape.root().get("b").offset());
+            }
+            // バッファを超える Map
+            Map<String, Integer> big = new LinkedHashMap<>();
+            for (int i = 0; i < 3000; i++) {
+                big.put("key" + i, i);
+            }
+            Files.write(tmp, new CBORFormat().encode(big).toByteArray());
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.READ)) {
+                tape = CBORTape.index(ch);
+                for (int i = 0; i < 3000; i += 7) {
+                    assertEquals((long) i, tape.root().get("key" + i).value());
+                }
+                assertNull(tape.root().get("key3000"));
+            }
+        } finally {
+            Files.delete(tmp);
+        }
+
+        // {_ "a": 1, "b": 2, "a": 3, 1: 4} 同じキーは最初のもの
+        tape = CBORTape.index(ByteBuffer.wrap(Bin.toByteArray("bf616101616202616103" + "0104ff")));
+        assertEquals(1L, tape.root().get("a").value());
+        assertEquals(2L, tape.root().get("b").value());
+        assertEquals(4L, tape.root().get(1).value());
+        assertEquals("a", tape.root().key(2).value());
+        assertNull(tape.root().get(2));
+    }
+
+    /**
+     * 不定長にできない major と 2^63 以上の長さ. 不定長として読まないこと.
+     */
+    @Test
+    public void testMalformedLength() {
+        System.out.println("malformed length");
+        String[] ng = {"5bffffffffffffffff" + "4100ff", "7b8000000000000000", "9b8000000000000000" + "01ff",
+            "bb4000000000000000", "1f", "3f", "df" + "00"};
+        for (String hex : ng) {
+            byte[] src = Bin.toByteArray(hex);
+            assertFalse(CBOR.validate(src), hex);
+            assertThrows(IllegalStateException.class, () -> CBOR.parse(src), hex);
+            assertThrows(IllegalStateException.class, () -> CBOR.parse(ByteBuffer.wrap(src)), hex);
+            assertThrows(IllegalStateException.class, () -> new CBORPushParser().feed(ByteBuffer.wrap(src)), hex);
+            assertThrows(IllegalStateException.class, () -> CBORTape.index(ByteBuffer.wrap(src)), hex);
+        }
+    }
+
+    /**
+     * Test of validate method, of class CBOR.
+     * RFC 8949 Appendix F の not well-formed の例.
+     */
+    @Test
+    public void testValidate() {
+        System.out.println("validate");
+        String[] ok = {"00", "1bffffffffffffffff", "9f018202039f0405ffff", "5f42010243030405ff", "bf6161f5ff", "c11a514b67b0", "f820"};
+        for (String hex : ok) {
+            assertTrue(CBOR.validate(Bin.toByteArray(hex)), hex);
+        }
+        String[] ng = {
+            // 途中で終わる
+            "18", "1a0102", "62ff", "8301", "a16161", "c0", "5f41",
+            // 予約
+            "1c", "3e", "fe",
+            // simple value の2バイト形式で32未満
+            "f800", "f81f",
+            // 不定長文字列の分割
+            "5f00ff", "5f21ff", "5f6100ff", "5f5f4100ffff", "7f4100ff",
+            // BREAK の位置
+            "ff", "81ff", "8200ff", "a1ff", "a2000100ff", "9f01", "bf00ff",
+            // 不定長にできない major
+            "1f", "3f", "df",
+            // 余り
+            "0000"
+        };
+        for (String hex : ng) {
+            assertFalse(CBOR.validate(Bin.toByteArray(hex)), hex);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(Bin.toByteArray("820102f6"));
+        CBOR.skipItem(buf);
+        assertEquals(3, buf.position());
+        assertThrows(IllegalStateException.class, () -> CBOR.skipItem(ByteBuffer.wrap(Bin.toByteArray("5f00ff"))));
+    }
+
+    /**
+     * Test of select method, of class CBORPath.
+     */
+    @Test
+    public void testPath() {
+        System.out.println("path");
+        Map<String, Object> meta = new java.util.LinkedHashMap<>();
+        meta.put("id", "m1");
+        meta.put("tags", Arrays.asList("x", "y"));
+        Map<String, Object> item1 = new java.util.LinkedHashMap<>();
+        item1.put("name", "a");
+        item1.put("price", 100);
+        Map<String, Object> item2 = new java.util.LinkedHashMap<>();
+        item2.put("price", 250);
+        Map<String, Object> doc = new java.util.LinkedHashMap<>();
+        doc.put("meta", meta);
+        doc.put("items", Arrays.asList(item1, item2, "z"));
+        doc.put("a b", 1);
+        byte[] src = CBOR.build(doc);
+
+        assertEquals(Arrays.asList("m1"), CBORPath.compile("$.meta.id").select(src));
+        assertEquals(Arrays.asList(100L, 250L), CBORPath.compile("$.items[*].price").select(src));
+        assertEquals("y", CBORPath.compile("$.meta.tags[1]").first(src));
+        assertEquals(1L, CBORPath.compile("$['a b']").first(src));
+        assertEquals(3, CBORPath.compile("$.*").select(src).size());
+        assertNull(CBORPath.compile("$.meta.none").first(src));
+        assertNull(CBORPath.compile("$.items[5]").first(src));
+        // 型が合わないときは中を読まない. 中は予約コード
+        assertTrue(CBORPath.compile("$.a").select(Bin.toByteArray("821c1c")).isEmpty());
+        assertTrue(CBORPath.compile("$[0]").select(Bin.toByteArray("a11c1c")).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> CBORPath.compile("meta"));
+    }
+
+    /**
+     * Test of parse method, of class CBORDecoder.
+     * 深い入れ子と大きすぎる長さ.
+     */
+    @Test
+    public void testDecoderLimit() {
+        System.out.println("decoder limit");
+        byte[] deep = new byte[100001];
+        Arrays.fill(deep, (byte) 0x81);
+        deep[100000] = 0;
+        CBORDecoder decoder = new CBORDecoder();
+        decoder.setMaxDepth(200000);
+        Object v = decoder.parse(deep);
+        for (int i = 0; i < 100000; i++) {
+            v = ((List) v).get(0);
+        }
+        assertEquals(0L, v);
+        assertThrows(IllegalStateException.class, () -> CBOR.parse(deep));
+
+        // 長さだけ大きく中身がない
+        byte[] huge = Bin.toByteArray("5b00000000ffffffff00");
+        assertThrows(IllegalStateException.class, () -> CBOR.parse(huge));
+        decoder = new CBORDecoder();
+        decoder.setMaxStringLength(1024);
+        CBORDecoder d2 = decoder;
+        assertThrows(IllegalStateException.class, () -> d2.parse(Bin.toByteArray("5904010000")));
+        decoder.setMaxItems(3);
+        assertEquals(Arrays.asList(1L, 2L), decoder.parse(Bin.toByteArray("820102")));
+        assertThrows(IllegalStateException.class, () -> d2.parse(Bin.toByteArray("83010203")));
+        decoder = new CBORDecoder();
+        decoder.setMaxBytes(4);
+        CBORDecoder d3 = decoder;
+        assertThrows(IllegalStateException.class, () -> d3.parse(Bin.toByteArray("82436161614261ff")));
+        assertEquals(Arrays.asList("a", "b"), CBOR.parse(Bin.toByteArray("9f61617f6162ffff")));
+    }
+
+    /**
+     * Test of setKeyCache method, of class CBORDecoder.
+     */
+    @Test
+    public void testKeyCache() {
+        System.out.println("key cache");
+        byte[] src = Bin.toByteArray("82a162696401a162696402");
+        CBORKeyCache cache = new CBORKeyCache();
+        CBORDecoder decoder = new CBORDecoder();
+        decoder.setKeyCache(cache);
+        List<Map> list = (List) decoder.parse(src);
+        assertEquals(2L, list.get(1).get("id"));
+        Object k1 = list.get(0).keySet().iterator().next();
+        Object k2 = list.get(1).keySet().iterator().next();
+        assertSame(k1, k2);
+        assertSame(k1, ((Map) decoder.parse(Bin.toByteArray("a1626964f6"))).keySet().iterator().next());
+
+        CBORBufferParser parser = new CBORBufferParser();
+        parser.setKeyCache(cache);
+        Map map = (Map) parser.parse(ByteBuffer.wrap(Bin.toByteArray("a1626964626964")));
+        assertSame(k1, map.keySet().iterator().next());
+        assertTrue(map.get("id") instanceof CBORText);
+    }
+
+    public static class Item {
+
+        private String name;
+        public int count;
+        public List<Long> ids;
+        public Kind kind;
+
+        public void setName(String name) {
+            this.name = "set:" + name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public enum Kind {
+        A, B
+    }
+
+    /**
+     * Test of parse method, of class CBOR. POJO への直接変換.
+     */
+    @Test
+    public void testBind() {
+        System.out.println("bind");
+        // {"name":"x","skip":{"a":[1,2]},"count":3,"ids":[1,2],"kind":"B"}
+        byte[] src = Bin.toByteArray("a5646e616d65617864736b6970a1616182010265636f756e740363696473820102646b696e646142");
+        Item item = CBOR.parse(src, Item.class);
+        assertEquals("set:x", item.getName());
+        assertEquals(3, item.count);
+        assertEquals(Arrays.asList(1L, 2L), item.ids);
+        assertEquals(Kind.B, item.kind);
+
+        // [{"count":1},{"count":null}]
+        List list = CBOR.parse(Bin.toByteArray("82a165636f756e7401a165636f756e74f6"), List.class);
+        assertEquals(2, list.size());
+        Item[] items = CBOR.parse(Bin.toByteArray("82a165636f756e7401a165636f756e74f6"), Item[].class);
+        assertEquals(1, items[0].count);
+        assertEquals(0, items[1].count);
+    }
+
+    public static class Chars {
+
+        public char c;
+        public Character d;
+        public boolean b;
+    }
+
+    /**
+     * 数値から char への変換と入らない型.
+     */
+    @Test
+    public void testBindConvert() {
+        System.out.println("bindConvert");
+        // {"c":65,"d":66}
+        Chars chars = CBOR.parse(Bin.toByteArray("a26163184161641842"), Chars.class);
+        assertEquals('A', chars.c);
+        assertEquals(Character.valueOf('B'), chars.d);
+        // {"b":1}
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> CBOR.parse(Bin.toByteArray("a1616201"), Chars.class));
+        assertTrue(e.getMessage().contains("b の boolean"), e.getMessage());
+    }
+
+    /**
+     * Test of setStringRef method, of class CBORFormat. stringref と Packed CBOR.
+     */
+    @Test
+    public void testStringRef() {
+        System.out.println("stringref");
+        CBORFormat format = new CBORFormat();
+        format.setStringRef(true);
+        List<String> src = Arrays.asList("hello", "hello", "ab", "ab", "hello");
+        byte[] bin = format.encode(src).toByteArray();
+        assertArrayEquals(Bin.toByteArray("d9010085" + "6568656c6c6f" + "d81900" + "626162" + "626162" + "d81900"), bin);
+        List list = (List) CBOR.parse(bin);
+        assertEquals(src, list);
+        assertSame(list.get(0), list.get(4));
+        CBORPushParser push = new CBORPushParser();
+        assertEquals(src, push.feed(ByteBuffer.wrap(bin)).get(0));
+
+        // 113([["hello"], [simple(0), simple(0)]])
+        list = (List) CBOR.parse(Bin.toByteArray("d871828165" + "68656c6c6f" + "82e0e0"));
+        assertEquals(Arrays.asList("hello", "hello"), list);
+        assertSame(list.get(0), list.get(1));
+
+        // ByteBuffer から読む
+        CBORBufferParser parser = new CBORBufferParser(false);
+        list = (List) parser.parse(ByteBuffer.wrap(bin));
+        assertEquals(src, list);
+        assertSame(list.get(0), list.get(4));
+        list = (List) CBOR.parse(ByteBuffer.wrap(bin));
+        assertEquals("hello", list.get(1).toString());
+        list = (List) parser.parse(ByteBuffer.wrap(Bin.toByteArray("d871828165" + "68656c6c6f" + "82e0e0")));
+        assertEquals(Arrays.asList("hello", "hello"), list);
+    }
+
+    /**
+     * Test of register method, of class CBORTags.
+     */
+    @Test
+    public void testTags() {
+        System.out.println("tags");
+        java.util.UUID uuid = new java.util.UUID(0x0123456789abcdefL, 0xfedcba9876543210L);
+        CBORFormat format = new CBORFormat();
+        byte[] bin = format.encode(uuid).toByteArray();
+        assertArrayEquals(Bin.toByteArray("d82550" + "0123456789abcdeffedcba9876543210"), bin);
+        assertEquals(uuid, CBOR.parse(bin));
+        assertEquals(java.net.URI.create("http://a/"), CBOR.parse(Bin.toByteArray("d820696874" + "74703a2f2f612f")));
+        // 21-23 は変換した文字列を CBORTag に入れたまま返す
+        CBORTag<?> expected = (CBORTag<?>) CBOR.parse(Bin.toByteArray("d64301" + "0203"));
+        assertEquals(22L, expected.tag().longValue());
+        assertEquals("AQID", expected.value());
+        expected = (CBORTag<?>) CBOR.parse(Bin.toByteArray("d54301" + "02ff"));
+        assertEquals("AQL_", expected.value());
+        expected = (CBORTag<?>) CBOR.parse(Bin.toByteArray("d74301" + "02ff"));
+        assertEquals("0102FF", expected.value());
+
+        CBORTags tags = new CBORTags();
+        tags.register(100000, (t, v) -> "big:" + v);
+        tags.register(200, (t, v) -> "small:" + v);
+        tags.register(Kind.class, 100000, Kind::name);
+        format.setTags(tags);
+        bin = format.encode(Arrays.asList(Kind.A)).toByteArray();
+        assertArrayEquals(Bin.toByteArray("81da000186a06141"), bin);
+        CBORDecoder decoder = new CBORDecoder();
+        decoder.setTags(tags);
+        assertEquals(Arrays.asList("big:A"), decoder.parse(bin));
+        assertEquals("small:1", decoder.parse(Bin.toByteArray("d8c801")));
+        tags.register(100000, null);
+        assertTrue(decoder.parse(bin) instanceof List);
+        assertTrue(((List) decoder.parse(bin)).get(0) instanceof CBORTag);
+        assertTrue(CBOR.parse(Bin.toByteArray("d8c801")) instanceof CBORTag);
+    }
+
+    /**
+     * Test of write method, of class CBORWriter.
+     */
+    @Test
+    public void testWriter() throws IOException {
+        System.out.println("writer");
+        Map<String, Object> map = new java.util.LinkedHashMap<>();
+        map.put("a", Arrays.asList(1, -1, 1.5, 100000.0f, 1.1, "\u3042\ud83d\ude00", new byte[] {1, 2}));
+        map.put("b", new java.math.BigInteger("18446744073709551616"));
+        map.put("c", null);
+        map.put("d", true);
+        map.put("e", new long[] {1});
+        CBORFormat format = new CBORFormat();
+        byte[] expected = format.encode(map).toByteArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        format.encode(map, out);
+        assertArrayEquals(expected, out.toByteArray());
+
+        ByteBuffer bb = ByteBuffer.allocate(200);
+        bb.put((byte) 0);
+        format.encode(map, bb);
+        assertEquals(expected.length + 1, bb.position());
+        assertArrayEquals(expected, Arrays.copyOfRange(bb.array(), 1, bb.position()));
+        ByteBuffer direct = ByteBuffer.allocateDirect(200);
+        format.encode(map, direct);
+        assertEquals(expected.length, direct.position());
+        assertThrows(java.nio.BufferOverflowException.class, () -> format.encode(map, ByteBuffer.allocate(10)));
+
+        out.reset();
+        CBORWriter writer = new CBORWriter(out);
+        writer.startArray(-1);
+        writer.writeString("x");
+        writer.tag(1);
+        writer.writeInt(0);
+        writer.end();
+        writer.flush();
+        assertArrayEquals(Bin.toByteArray("9f6178c100ff"), out.toByteArray());
+
+        format.setStringRef(true);
+        out.reset();
+        format.encode(Arrays.asList("hello", "hello"), out);
+        assertArrayEquals(format.encode(Arrays.asList("hello", "hello")).toByteArray(), out.toByteArray());
+    }
+
+    /**
+     * Test of writeArray method, of class CBORWriter. 不定長.
+     */
+    @Test
+    public void testIndefinite() throws Exception {
+        System.out.println("indefinite");
+        CBORFormat format = new CBORFormat();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        format.encode(Arrays.asList(1, 2).iterator(), out);
+        assertArrayEquals(Bin.toByteArray("9f0102ff"), out.toByteArray());
+        assertArrayEquals(Bin.toByteArray("a161619f01ff"), format.encode(Map.of("a", Stream.of(1))).toByteArray());
+
+        out.reset();
+        CBORWriter writer = new CBORWriter(out);
+        writer.writeMap(Map.of("a", 1).entrySet().iterator());
+        writer.flush();
+        assertArrayEquals(Bin.toByteArray("bf616101ff"), out.toByteArray());
+
+        out.reset();
+        try (java.util.concurrent.SubmissionPublisher<Integer> pub = new java.util.concurrent.SubmissionPublisher<>()) {
+            Thread t = new Thread(() -> {
+                try {
+                    while (pub.getNumberOfSubscribers() == 0) {
+                        Thread.sleep(1);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                pub.submit(1);
+                pub.submit(2);
+                pub.close();
+            });
+            t.start();
+            format.encode(pub, out);
+            t.join();
+        }
+        assertArrayEquals(Bin.toByteArray("9f0102ff"), out.toByteArray());
+        assertEquals(Arrays.asList(1L, 2L), CBOR.parse(out.toByteArray()));
+    }
+
+    /**
+     * Test of encode method, of class CBOREncoder.
+     */
+    @Test
+    public void testEncoderPool() throws IOException {
+        System.out.println("encoder pool");
+        CBORBufferPool pool = new CBORBufferPool(4, 16, 64);
+        CBOREncoder encoder = new CBOREncoder(new CBORFormat(), pool);
+        List<Object> src = Arrays.asList("abc", 1, Arrays.asList(true, null));
+        byte[] expected = new CBORFormat().encode(src).toByteArray();
+        assertArrayEquals(expected, encoder.encode(src));
+        assertEquals(0, pool.hits());
+        assertEquals(1, pool.misses());
+        assertArrayEquals(expected, encoder.encode(src));
+        assertEquals(1, pool.hits());
+
+        // 大きくなったものは戻らない
+        byte[] big = new byte[100];
+        assertEquals(102, encoder.encode(big).length);
+        encoder.encode(src);
+        assertEquals(2, pool.misses());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(src, out);
+        assertArrayEquals(expected, out.toByteArray());
+        out.reset();
+        encoder.encode(src, Channels.newChannel(out));
+        assertArrayEquals(expected, out.toByteArray());
+        assertArrayEquals(expected, CBOR.build(src));
+    }
+
+    /**
+     * Test of sizeOf method, of class CBORFormat.
+     */
+    @Test
+    public void testSizeOf() {
+        System.out.println("sizeOf");
+        Map<String, Object> map = new java.util.LinkedHashMap<>();
+        map.put("a", Arrays.asList(0, 23, 24, 255, 256, 65536, -1L << 40, 1.5, 100000.0f, 1.1, Double.NaN));
+        map.put("b\u3042\ud83d\ude00\ud800", new byte[300]);
+        map.put("c", new java.math.BigInteger("-18446744073709551617"));
+        map.put("d", Arrays.asList(null, false, new int[] {1, 2}, java.util.UUID.randomUUID()));
+        map.put("e", Arrays.asList("hello", "hello", "hello"));
+        CBORFormat format = new CBORFormat();
+        byte[] expected = format.encode(map).toByteArray();
+        assertEquals(expected.length, format.sizeOf(map));
+        byte[] exact = format.toByteArray(map);
+        assertArrayEquals(expected, exact);
+
+        format.setStringRef(true);
+        expected = format.encode(map).toByteArray();
+        assertEquals(expected.length, format.sizeOf(map));
+        assertArrayEquals(expected, format.toByteArray(map));
+        assertThrows(UnsupportedOperationException.class, () -> format.sizeOf(Stream.of(1)));
+    }
+
+    /**
+     * Test of CBORRaw and CBORMemo.
+     */
+    @Test
+    public void testRaw() throws IOException {
+        System.out.println("raw");
+        CBORRaw raw = CBORRaw.of(Bin.toByteArray("a1616101"));
+        CBORFormat format = new CBORFormat();
+        List<Object> src = Arrays.asList(raw, raw.embedded());
+        byte[] expected = Bin.toByteArray("82a1616101d81844a1616101");
+        assertArrayEquals(expected, format.encode(src).toByteArray());
+        assertArrayEquals(expected, format.toByteArray(src));
+        assertArrayEquals(expected, CBOR.build(src));
+        assertThrows(IllegalArgumentException.class, () -> CBORRaw.of(Bin.toByteArray("82")));
+
+        List list = (List) CBOR.parse(expected);
+        assertEquals(Map.of("a", 1L), list.get(0));
+        CBORRaw lazy = (CBORRaw) list.get(1);
+        assertTrue(lazy.isEmbedded());
+        assertEquals(Map.of("a", 1L), lazy.value());
+        assertArrayEquals(expected, CBOR.build(Arrays.asList(list.get(0), lazy)));
+
+        // stringref の表がずれない
+        format.setStringRef(true);
+        CBORRaw hello = CBORRaw.of(Bin.toByteArray("6568656c6c6f"));
+        byte[] bin = format.encode(Arrays.asList(hello, "hello", "hello")).toByteArray();
+        assertEquals(Arrays.asList("hello", "hello", "hello"), CBOR.parse(bin));
+        assertEquals(bin.length, format.sizeOf(Arrays.asList(hello, "hello", "hello")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        format.encode(Arrays.asList(hello, "hello", "hello"), out);
+        assertArrayEquals(bin, out.toByteArray());
+
+        CBORMemo memo = new CBORMemo(new CBORFormat(), 2, 1024, false);
+        CBORRaw r1 = memo.get(Arrays.asList(1, 2));
+        assertSame(r1, memo.get(Arrays.asList(1, 2)));
+        memo.get("a");
+        memo.get("b");
+        assertEquals(2, memo.size());
+        assertNotSame(r1, memo.get(Arrays.asList(1, 2)));
+        CBORMemo identity = new CBORMemo(new CBORFormat(), 10, 1024, true);
+        List<Integer> key = Arrays.asList(1);
+        assertSame(identity.get(key), identity.get(key));
+        assertNotSame(identity.get(key), identity.get(Arrays.asList(1)));
+    }
+
+    /**
+     * Test of setValueSharing method, of class CBORFormat. tag 28, 29.
+     */
+    @Test
+    public void testValueSharing() throws IOException {
+        System.out.println("value sharing");
+        List<Object> item = Arrays.asList("x", 1);
+        List<Object> src = Arrays.asList(item, item, Arrays.asList(item));
+        CBORFormat format = new CBORFormat();
+        format.setValueSharing(true);
+        byte[] bin = format.encode(src).toByteArray();
+        assertArrayEquals(Bin.toByteArray("83d81c82617801d81d0081d81d00"), bin);
+        assertArrayEquals(bin, format.toByteArray(src));
+        assertEquals(bin.length, format.sizeOf(src));
+        List list = (List) CBOR.parse(bin);
+        assertEquals(Arrays.asList(Arrays.asList("x", 1L), Arrays.asList("x", 1L), Arrays.asList(Arrays.asList("x", 1L))), list);
+        assertSame(list.get(0), list.get(1));
+        assertSame(list.get(0), ((List) list.get(2)).get(0));
+
+        // 循環
+        List<Object> cycle = new java.util.ArrayList<>();
+        cycle.add("a");
+        cycle.add(cycle);
+        bin = format.encode(cycle).toByteArray();
+        assertArrayEquals(Bin.toByteArray("d81c826161d81d00"), bin);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        format.encode(cycle, out);
+        assertArrayEquals(bin, out.toByteArray());
+        List decoded = (List) CBOR.parse(bin);
+        assertSame(decoded, decoded.get(1));
+        assertThrows(IllegalStateException.class, () -> CBOR.parse(Bin.toByteArray("d81d00")));
+    }
+
+    public static class Node {
+
+        public String name;
+        public Node next;
+
+        Node(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Bean の共有と循環. 変換前の Bean で同一性を見る.
+     */
+    @Test
+    public void testValueSharingBean() throws IOException {
+        System.out.println("value sharing bean");
+        Node a = new Node("a");
+        Node b = new Node("b");
+        a.next = b;
+        b.next = a;
+        List<Node> src = Arrays.asList(a, a);
+        CBORFormat format = new CBORFormat();
+        format.setValueSharing(true);
+        byte[] bin = format.encode(src).toByteArray();
+        assertArrayEquals(bin, format.toByteArray(src));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        format.encode(src, out);
+        assertArrayEquals(bin, out.toByteArray());
+        assertEquals(bin.length, format.sizeOf(src));
+        List list = (List) CBOR.parse(bin);
+        Map first = (Map) list.get(0);
+        assertSame(first, list.get(1));
+        assertEquals("a", first.get("name"));
+        Map second = (Map) first.get("next");
+        assertEquals("b", second.get("name"));
+        assertSame(first, second.get("next"));
+    }
+
+    /**
+     * Test of setDeterministic method, of class CBORFormat. RFC 8949 4.2.
+     */
+    @Test
+    public void testDeterministic() throws IOException {
+        System.out.println("deterministic");
+        Map<Object, Object> src = new java.util.LinkedHashMap<>();
+        src.put("aa", 4);
+        src.put("b", 3);
+        src.put(-1, 2);
+        src.put(10, Arrays.asList(1.5, Stream.of(1)));
+        CBORFormat format = new CBORFormat();
+        format.setDeterministic(true);
+        byte[] expected = Bin.toByteArray("a40a82f93e008101200261620362616104");
+        assertArrayEquals(expected, format.encode(src).toByteArray());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        src.put(10, Arrays.asList(1.5, Stream.of(1)));
+        format.encode(src, out);
+        assertArrayEquals(expected, out.toByteArray());
+        assertTrue(CBOR.isDeterministic(expected));
+
+        assertFalse(CBOR.isDeterministic(Bin.toByteArray("1817"))); // 長い
+        assertFalse(CBOR.isDeterministic(Bin.toByteArray("9f01ff"))); // 不定長
+        assertFalse(CBOR.isDeterministic(Bin.toByteArray("a220020103"))); // 順
+        assertFalse(CBOR.isDeterministic(Bin.toByteArray("a201010102"))); // 重複
+        assertFalse(CBOR.isDeterministic(Bin.toByteArray("fb3ff8000000000000"))); // 1.5
+        assertFalse(CBOR.isDeterministic(Bin.toByteArray("0101"))); // 余り
+        assertTrue(CBOR.isDeterministic(Bin.toByteArray("fb3ff199999999999a"))); // 1.1
+
+        format.setValueSharing(true);
+        assertThrows(IllegalStateException.class, () -> format.encode(src));
+    }
+
+    /**
+     * tag 2, 3, 4, 5.
+     */
+    @Test
+    public void testBigNumber() throws IOException {
+        System.out.println("bignum, decimal fraction, bigfloat");
+        java.math.BigInteger b64 = java.math.BigInteger.ONE.shiftLeft(64);
+        java.math.BigDecimal dec = new java.math.BigDecimal("273.15");
+        List<Object> src = Arrays.asList(b64, b64.subtract(java.math.BigInteger.ONE), java.math.BigInteger.ONE.shiftLeft(71),
+                b64.negate().subtract(java.math.BigInteger.ONE), dec, 1.5, 100000.0f);
+        byte[] expected = Bin.toByteArray("87c249010000000000000000" + "1bffffffffffffffff" + "c249800000000000000000"
+                + "c349010000000000000000" + "c48221196ab3" + "f93e00" + "fa47c35000");
+        CBORFormat format = new CBORFormat();
+        assertArrayEquals(expected, format.encode(src).toByteArray());
+        assertArrayEquals(expected, format.toByteArray(src));
+        assertEquals(expected.length, format.sizeOf(src));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        format.encode(src, out);
+        assertArrayEquals(expected, out.toByteArray());
+
+        List list = (List) CBOR.parse(expected);
+        assertEquals(b64, list.get(0));
+        assertEquals(java.math.BigInteger.ONE.shiftLeft(71), list.get(2));
+        assertEquals(b64.negate().subtract(java.math.BigInteger.ONE), list.get(3));
+        assertEquals(dec, list.get(4));
+        assertEquals(new java.math.BigDecimal("1.5"), CBOR.parse(Bin.toByteArray("c5822003")));
+        assertEquals(new java.math.BigDecimal("-12345678901234567890.1"),
+                CBOR.parse(format.encode(new java.math.BigDecimal("-12345678901234567890.1")).toByteArray()));
+    }
+
+    /**
+     * tag 0, 1, 100, 1004.
+     */
+    @Test
+    public void testDateTime() throws IOException {
+        System.out.println("date/time");
+        java.time.Instant sec = java.time.Instant.ofEpochSecond(1363896240);
+        java.time.Instant ms = java.time.Instant.ofEpochSecond(1363896240, 500000000);
+        java.time.OffsetDateTime odt = java.time.OffsetDateTime.of(2013, 3, 21, 20, 4, 0, 0, java.time.ZoneOffset.UTC);
+        java.time.LocalDate date = java.time.LocalDate.of(1940, 10, 9);
+        java.util.Calendar cal = java.util.Calendar.getInstance(java.util.TimeZone.getTimeZone("UTC"));
+        cal.setTimeInMillis(1363896240500L);
+        List<Object> src = Arrays.asList(sec, ms, odt, date, cal);
+        // RFC 8949 Appendix A, RFC 8943
+        byte[] expected = Bin.toByteArray("85c11a514b67b0" + "c1fb41d452d9ec200000"
+                + "c074323031332d30332d32315432303a30343a30305a" + "d8643929b3" + "c1fb41d452d9ec200000");
+        CBORFormat format = new CBORFormat();
+        assertArrayEquals(expected, format.encode(src).toByteArray());
+        assertArrayEquals(expected, format.toByteArray(src));
+        assertEquals(expected.length, format.sizeOf(src));
+
+        List list = (List) CBOR.parse(expected);
+        assertEquals(Arrays.asList(sec, ms, odt, date, ms), list);
+        assertEquals(date, CBOR.parse(Bin.toByteArray("d903ec6a313934302d31302d3039")));
+        assertEquals(java.time.OffsetDateTime.of(2013, 3, 21, 20, 4, 0, 250000000, java.time.ZoneOffset.ofHours(9)),
+                CBOR.parse(format.encode(java.time.OffsetDateTime.of(2013, 3, 21, 20, 4, 0, 250000000, java.time.ZoneOffset.ofHours(9))).toByteArray()));
+        assertTrue(CBOR.parse(Bin.toByteArray("c06378797a")) instanceof CBORTag);
+    }
+
+    /**
+     * 整数キーの Map. COSE header など.
+     */
+    @Test
+    public void testIntKeys() throws IOException {
+        System.out.println("int keys");
+        // {1: -7, 4: h'6b6964', -1: 1} 順不同で来る
+        byte[] src = Bin.toByteArray("a320010443" + "6b6964" + "0126");
+        // 初期値は来た順
+        Map ordered = (Map) CBOR.parse(src);
+        assertFalse(ordered instanceof CBORIntMap);
+        assertEquals(Arrays.asList(-1L, 4L, 1L), new java.util.ArrayList<>(ordered.keySet()));
+        assertArrayEquals(src, new CBORFormat().encode(ordered).toByteArray());
+
+        CBORDecoder decoder = new CBORDecoder();
+        decoder.setIntKeyMap(true);
+        Map map = (Map) decoder.parse(src);
+        assertTrue(map instanceof CBORIntMap);
+        CBORIntMap im = (CBORIntMap) map;
+        assertEquals(-7L, im.get(1));
+        assertEquals(1L, im.get(-1L));
+        assertArrayEquals(Bin.toByteArray("6b6964"), (byte[]) map.get(4L));
+        assertEquals(-1L, im.keyAt(0));
+
+        byte[] expected = Bin.toByteArray("a3012604436b69642001");
+        CBORFormat format = new CBORFormat();
+        assertArrayEquals(expected, format.encode(map).toByteArray());
+        assertArrayEquals(expected, format.toByteArray(map));
+        assertEquals(expected.length, format.sizeOf(map));
+        format.setDeterministic(true);
+        assertArrayEquals(expected, format.encode(map).toByteArray());
+        assertTrue(CBOR.isDeterministic(expected));
+
+        // 整数以外が混ざる
+        Map mixed = (Map) decoder.parse(Bin.toByteArray("a20102616103"));
+        assertFalse(mixed instanceof CBORIntMap);
+        assertEquals(Map.of(1L, 2L, "a", 3L), mixed);
+        // 後から入れたものは整数のキーの後
+        im.put("a", 5L);
+        assertEquals(4, im.size());
+        assertEquals(3, im.intSize());
+        assertEquals(5L, im.get("a"));
+        assertEquals(Arrays.asList(-1L, 1L, 4L, "a"), new java.util.ArrayList<>(im.keySet()));
+        byte[] bin = format.encode(im).toByteArray();
+        assertTrue(CBOR.isDeterministic(bin));
+        Map back = (Map) CBOR.parse(bin);
+        assertEquals(4, back.size());
+        assertEquals(5L, back.get("a"));
+        assertEquals(-7L, back.get(1L));
+        assertEquals(5L, im.remove("a"));
+        assertArrayEquals(expected, format.encode(im).toByteArray());
+
+        // stringref の番号は符号化の順. -1 の "abc" は 24 の後
+        CBORIntMap refs = new CBORIntMap();
+        for (int i = 0; i < 24; i++) {
+            refs.put(i, String.format("s%02d", i));
+        }
+        refs.put(24, "abc");
+        refs.put(-1, "abc");
+        CBORFormat sr = new CBORFormat();
+        sr.setStringRef(true);
+        bin = sr.encode(refs).toByteArray();
+        assertArrayEquals(bin, sr.toByteArray(refs));
+        assertEquals(bin.length, sr.sizeOf(refs));
+    }
+
+    /**
+     * Map の配列を列で読む.
+     */
+    @Test
+    public void testColumns() {
+        System.out.println("columns");
+        List<Object> rows = new java.util.ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Map<String, Object> row = new java.util.LinkedHashMap<>();
+            row.put("ts", 1000L + i);
+            row.put("id", i % 2 == 0 ? "a" : "b");
+            row.put("value", i * 0.5);
+            if (i != 1) {
+                row.put("x", i < 3 ? (Object) (long) i : "s");
+            }
+            rows.add(row);
+        }
+        byte[] bin = CBOR.build(rows);
+        CBORColumnReader reader = new CBORColumnReader(bin);
+        reader.setBatchSize(3);
+        assertTrue(reader.hasNext());
+        CBORColumnBatch batch = reader.next();
+        assertEquals(3, batch.size());
+        assertArrayEquals(new long[]{1000, 1001, 1002}, Arrays.copyOf(batch.column("ts").longs(), 3));
+        assertArrayEquals(new double[]{0, 0.5, 1}, Arrays.copyOf(batch.column("value").doubles(), 3));
+        CBORColumnBatch.Column id = batch.column("id");
+        assertEquals(CBORColumnBatch.Type.STRING, id.type());
+        assertEquals(Arrays.asList("a", "b"), id.dictionary());
+        assertArrayEquals(new int[]{0, 1, 0}, Arrays.copyOf(id.codes(), 3));
+        CBORColumnBatch.Column x = batch.column("x");
+        assertEquals(CBORColumnBatch.Type.LONG, x.type());
+        assertTrue(x.isNull(1));
+        assertEquals(2L, x.get(2));
+
+        batch = reader.next();
+        assertEquals(2, batch.size());
+        assertEquals(1004L, batch.column("ts").get(1));
+        x = batch.column("x"); // batch ごとに決める
+        assertEquals(CBORColumnBatch.Type.STRING, x.type());
+        assertEquals("s", x.get(1));
+        assertFalse(reader.hasNext());
+
+        // 型が混ざる, 列を決める
+        reader = new CBORColumnReader(bin);
+        reader.define("x", null);
+        reader.define("ts", CBORColumnBatch.Type.DOUBLE);
+        batch = reader.next();
+        assertEquals(5, batch.size());
+        assertEquals(2, batch.columns().size());
+        assertNull(batch.column("id"));
+        assertEquals(1004.0, batch.column("ts").doubles()[4]);
+        x = batch.column("x");
+        assertEquals(CBORColumnBatch.Type.OBJECT, x.type());
+        assertEquals(Arrays.asList(0L, null, 2L, "s", "s"), Arrays.asList(Arrays.copyOf(x.objects(), 5)));
+        assertFalse(reader.hasNext());
+
+        // CBOR Sequence
+        reader = new CBORColumnReader(Bin.toByteArray("a1616101" + "a1616102"));
+        batch = reader.next();
+        assertArrayEquals(new long[]{1, 2}, Arrays.copyOf(batch.column("a").longs(), 2));
+        assertFalse(reader.hasNext());
+    }
+
+    /**
+     * CBORWriter が知らない型も stringref の表を共有する.
+     */
+    @Test
+    public void testStringRefObject() throws IOException {
+        System.out.println("stringref object");
+        List<Object> src = new java.util.ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Item item = new Item();
+            item.count = i;
+            item.ids = Arrays.asList(10L, 20L);
+            item.kind = Kind.B;
+            src.add(item);
+        }
+        CBORFormat format = new CBORFormat();
+        format.setStringRef(true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        format.encode(src, out);
+        byte[] bin = out.toByteArray();
+        assertArrayEquals(format.encode(src).toByteArray(), bin);
+        assertArrayEquals(bin, format.toByteArray(src));
+        assertEquals(bin.length, format.sizeOf(src));
+        List list = (List) CBOR.parse(bin);
+        assertEquals(3, list.size());
+        for (int i = 0; i < 3; i++) {
+            Map map = (Map) list.get(i);
+            assertEquals((long) i, map.get("count"));
+            assertEquals(Arrays.asList(10L, 20L), map.get("ids"));
+            assertEquals("B", map.get("kind"));
+        }
+    }
+
+    /**
+     * Iterable は不定長の配列. Path は要素も Path なので配列にしない.
+     */
+    @Test
+    public void testIterable() throws IOException {
+        System.out.println("iterable");
+        CBORFormat format = new CBORFormat();
+        Iterable<Integer> it = () -> Arrays.asList(1, 2).iterator();
+        assertArrayEquals(Bin.toByteArray("9f0102ff"), format.encode(it).toByteArray());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        format.encode(it, out);
+        assertArrayEquals(Bin.toByteArray("9f0102ff"), out.toByteArray());
+
+        Path path = java.nio.file.Paths.get("a");
+        byte[] bin = format.encode(path).toByteArray();
+        assertNotEquals((byte) 0x9f, bin[0]);
+        out.reset();
+        format.encode(path, out);
+        assertArrayEquals(bin, out.toByteArray());
+        assertEquals(bin.length, format.sizeOf(path));
+    }
+
+    /**
+     * Publisher の中も stringref の表を共有する.
+     */
+    @Test
+    public void testStringRefPublisher() throws IOException {
+        System.out.println("stringref publisher");
+        List<String> items = Arrays.asList("hello", "hello", "world");
+        java.util.concurrent.Flow.Publisher<String> pub = s -> s.onSubscribe(new java.util.concurrent.Flow.Subscription() {
+            int i;
+
+            @Override
+            public void request(long n) {
+                if (i < items.size()) {
+                    s.onNext(items.get(i++));
+                } else if (i++ == items.size()) {
+                    s.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        CBORFormat format = new CBORFormat();
+        format.setStringRef(true);
+        byte[] bin = format.encode(Arrays.asList("hello", pub, "world")).toByteArray();
+        assertArrayEquals(Bin.toByteArray("d9010083" + "6568656c6c6f" + "9fd81900d81900" + "65776f726c64" + "ff" + "d81901"), bin);
+        assertEquals(Arrays.asList("hello", Arrays.asList("hello", "hello", "world"), "world"), CBOR.parse(bin));
+    }
+}